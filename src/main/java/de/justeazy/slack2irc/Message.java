@@ -19,6 +19,12 @@ public class Message implements Cloneable {
 	 */
 	private String content;
 
+	/**
+	 * ID of the message in its network (e.g., the Slack timestamp) or
+	 * <code>null</code> if the network has no IDs
+	 */
+	private String id;
+
 	/**
 	 * <p>
 	 * Creates an instance of <code>Message</code> with a given username and
@@ -35,6 +41,24 @@ public class Message implements Cloneable {
 		setContent(content);
 	}
 
+	/**
+	 * <p>
+	 * Creates an instance of <code>Message</code> with a given username,
+	 * content and ID.
+	 * </p>
+	 * 
+	 * @param username
+	 *            Username
+	 * @param content
+	 *            Content
+	 * @param id
+	 *            ID of the message in its network
+	 */
+	public Message(String username, String content, String id) {
+		this(username, content);
+		setId(id);
+	}
+
 	/**
 	 * <p>
 	 * Returns the username.
@@ -81,6 +105,29 @@ public class Message implements Cloneable {
 		this.content = content;
 	}
 
+	/**
+	 * <p>
+	 * Returns the ID of the message in its network.
+	 * </p>
+	 * 
+	 * @return ID (<code>null</code> if the network has no IDs)
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * <p>
+	 * Sets the ID of the message in its network.
+	 * </p>
+	 * 
+	 * @param id
+	 *            ID
+	 */
+	public void setId(String id) {
+		this.id = id;
+	}
+
 	/**
 	 * <p>
 	 * Creates a clone of the instance.
@@ -88,7 +135,7 @@ public class Message implements Cloneable {
 	 */
 	@Override
 	public Message clone() {
-		return new Message(getUsername(), getContent());
+		return new Message(getUsername(), getContent(), getId());
 	}
 
 }
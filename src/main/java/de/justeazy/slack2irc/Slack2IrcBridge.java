@@ -3,9 +3,13 @@ package de.justeazy.slack2irc;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -13,8 +17,19 @@ import java.util.regex.Pattern;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import de.justeazy.slack2irc.filter.ContentFilter;
+import de.justeazy.slack2irc.ha.LeaseManager;
+import de.justeazy.slack2irc.ha.RelayBuffer;
+import de.justeazy.slack2irc.irc.EmojiReplacer;
 import de.justeazy.slack2irc.irc.IrcBot;
+import de.justeazy.slack2irc.irc.IrcNicks;
+import de.justeazy.slack2irc.irc.NioIrcBot;
+import de.justeazy.slack2irc.irc.PuppetIrcBot;
 import de.justeazy.slack2irc.slack.SlackBot;
+import de.justeazy.slack2irc.trace.EventRecorder;
+import de.justeazy.slack2irc.trace.TraceEvent;
+import de.justeazy.slack2irc.transcript.TranscriptRecord;
+import de.justeazy.slack2irc.transcript.TranscriptWriter;
 
 /**
  * <p>
@@ -25,7 +40,7 @@ import de.justeazy.slack2irc.slack.SlackBot;
  * </p>
  * 
  * @author Henrik Peters
- *
+ * 
  */
 public class Slack2IrcBridge implements PropertyChangeListener {
 
@@ -54,6 +69,47 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 	 */
 	private Thread slackThread;
 
+	/**
+	 * Replacer of Slack emojis in IRC (<code>null</code> if the bots are given)
+	 */
+	private EmojiReplacer emojis;
+
+	/**
+	 * Writer of the transcript of relayed messages (<code>null</code> if no
+	 * transcript is configured)
+	 */
+	private TranscriptWriter transcriptWriter;
+
+	/**
+	 * Filter of relayed messages (<code>null</code> if no filter rules are
+	 * configured)
+	 */
+	private ContentFilter contentFilter;
+
+	/**
+	 * Lease of this instance in high availability mode (<code>null</code> if
+	 * no lease file is configured)
+	 */
+	private LeaseManager lease;
+
+	/**
+	 * Recently received messages to relay after taking over the lease
+	 * (<code>null</code> if no lease file is configured)
+	 */
+	private RelayBuffer recentMessages;
+
+	/**
+	 * Lock serializing the relay of received and buffered messages in high
+	 * availability mode
+	 */
+	private final Object relayLock = new Object();
+
+	/**
+	 * Whether the buffered messages have been relayed since this instance
+	 * took over the lease (guarded by <code>relayLock</code>)
+	 */
+	private boolean caughtUp = false;
+
 	/**
 	 * <p>
 	 * Creates an instance of the bridge by initializing the IRC and the Slack
@@ -70,25 +126,122 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 	public Slack2IrcBridge(String propertiesFile) throws FileNotFoundException, IOException {
 		Properties properties = initProperties(propertiesFile);
 
-		ircBot = new IrcBot(properties);
+		emojis = new EmojiReplacer(openEmojisConfig(), properties.getProperty("ircCustomEmojiFormat", "[%s]"));
+
+		Bot ircBot;
+		if ("nio".equals(properties.getProperty("ircTransport"))) {
+			ircBot = new NioIrcBot(properties, emojis);
+		} else {
+			ircBot = new IrcBot(properties, emojis);
+		}
+		if (Boolean.parseBoolean(properties.getProperty("ircPuppets"))) {
+			ircBot = new PuppetIrcBot(ircBot, properties, emojis);
+		}
+
+		init(properties, ircBot, new SlackBot(properties));
+	}
+
+	/**
+	 * <p>
+	 * Creates an instance of the bridge with the given bots (e.g., to replay
+	 * recorded events).
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties of the bridge
+	 * @param ircBot
+	 *            Bot connected to IRC
+	 * @param slackBot
+	 *            Bot connected to Slack
+	 * @throws IOException
+	 *             If the event trace can't be created, the filter rules can't
+	 *             be read or the lease file can't be opened
+	 */
+	public Slack2IrcBridge(Properties properties, Bot ircBot, Bot slackBot) throws IOException {
+		init(properties, ircBot, slackBot);
+	}
+
+	/**
+	 * <p>
+	 * Registers the bridge (and the event recorder if a trace file is
+	 * configured) as listener of the given bots.
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties of the bridge
+	 * @param ircBot
+	 *            Bot connected to IRC
+	 * @param slackBot
+	 *            Bot connected to Slack
+	 * @throws IOException
+	 *             If the event trace can't be created, the filter rules can't
+	 *             be read or the lease file can't be opened
+	 */
+	private void init(Properties properties, Bot ircBot, Bot slackBot) throws IOException {
+		this.ircBot = ircBot;
+		this.slackBot = slackBot;
+
+		if (properties.getProperty("traceFile") != null) {
+			EventRecorder eventRecorder = new EventRecorder(properties.getProperty("traceFile"),
+					Long.parseLong(properties.getProperty("traceFlushInterval", "5")));
+			ircBot.addPropertyChangeListener(eventRecorder.getListener(TraceEvent.ORIGIN_IRC));
+			slackBot.addPropertyChangeListener(eventRecorder.getListener(TraceEvent.ORIGIN_SLACK));
+		}
+
 		ircBot.addPropertyChangeListener(this);
 		ircThread = new Thread(ircBot);
 
-		slackBot = new SlackBot(properties);
 		slackBot.addPropertyChangeListener(this);
 		slackThread = new Thread(slackBot);
+
+		if (properties.getProperty("transcriptFile") != null) {
+			transcriptWriter = new TranscriptWriter(properties);
+		}
+
+		if (properties.getProperty("filterRules") != null) {
+			contentFilter = new ContentFilter(properties);
+		}
+
+		if (properties.getProperty("haLeaseFile") != null) {
+			lease = new LeaseManager(properties);
+			lease.addPropertyChangeListener(this);
+			if (ircBot instanceof IrcNicks) {
+				lease.setIrcNicks((IrcNicks) ircBot);
+			}
+			recentMessages = new RelayBuffer(Integer.parseInt(properties.getProperty("haBufferSize", "1000")));
+		}
 	}
 
 	/**
 	 * <p>
-	 * Starts both bots in their respective threads.
+	 * Starts both bots in their respective threads. In high availability mode
+	 * both bots connect, but messages are only relayed while this instance
+	 * holds the lease.
 	 * </p>
 	 */
 	public void start() {
+		if (transcriptWriter != null) {
+			transcriptWriter.start();
+		}
+		if (lease != null) {
+			lease.start();
+		}
 		ircThread.start();
 		slackThread.start();
 	}
 
+	/**
+	 * <p>
+	 * Returns the writer of the transcript.
+	 * </p>
+	 * 
+	 * @return Writer of the transcript (<code>null</code> if no transcript is
+	 *         configured)
+	 */
+	public TranscriptWriter getTranscriptWriter() {
+		return transcriptWriter;
+	}
+
 	/**
 	 * <p>
 	 * Loads the connection properties from the given filename.
@@ -108,6 +261,30 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 		return properties;
 	}
 
+	/**
+	 * <p>
+	 * Opens the configured emoji replacements. The file
+	 * <code>src/main/resources/slackemojis.config</code> is used if it exists
+	 * (to edit the replacements without rebuilding), otherwise the resource of
+	 * the classpath.
+	 * </p>
+	 * 
+	 * @return Stream of the emoji replacements
+	 * @throws FileNotFoundException
+	 *             If neither the file nor the resource exists
+	 */
+	private static InputStream openEmojisConfig() throws FileNotFoundException {
+		File emojisFile = new File("src/main/resources/slackemojis.config");
+		if (emojisFile.isFile()) {
+			return new FileInputStream(emojisFile);
+		}
+		InputStream emojisStream = Slack2IrcBridge.class.getResourceAsStream("/slackemojis.config");
+		if (emojisStream == null) {
+			throw new FileNotFoundException("slackemojis.config not found in the classpath");
+		}
+		return emojisStream;
+	}
+
 	/**
 	 * <p>
 	 * Does the processing of command events like <code>?listusers</code>.
@@ -117,6 +294,9 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 	 *            Event
 	 */
 	private void processCommandEvent(PropertyChangeEvent evt) {
+		if (lease != null && !lease.isActive()) {
+			return;
+		}
 		Message message = (Message) evt.getNewValue();
 		if (message.getContent().startsWith("?listemojis")) {
 			l.debug("Processing ?listemojis command event");
@@ -124,6 +304,11 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 		} else if (message.getContent().startsWith("?listusers")) {
 			l.trace("Processing ?listusers command event");
 			processListusersCommandEvent(evt);
+		} else if (message.getContent().startsWith("?filterstats")) {
+			l.debug("Processing ?filterstats command event");
+			if (contentFilter != null) {
+				contentFilter.logStatistics();
+			}
 		}
 	}
 
@@ -136,7 +321,9 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 	 *            Event
 	 */
 	private void processListemojisCommandEvent(PropertyChangeEvent evt) {
-		((SlackBot) slackBot).getEmojisList();
+		if (slackBot instanceof SlackBot) {
+			((SlackBot) slackBot).getEmojisList();
+		}
 	}
 
 	/**
@@ -150,21 +337,37 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 	private void processListusersCommandEvent(PropertyChangeEvent evt) {
 		if (evt.getSource().equals(ircBot)) {
 			String[] usernames = slackBot.getChannelUsers();
-			String msg = "Users in Slack: ";
-			for (String username : usernames) {
-				msg += username + ", ";
-			}
-			l.debug("msg.substring(0, msg.length() - 2) = " + msg.substring(0, msg.length() - 2));
-			ircBot.sendMessage(new Message(null, msg.substring(0, msg.length() - 2)));
+			String msg = joinUsernames("Users in Slack: ", usernames);
+			l.debug("msg = {}", msg);
+			ircBot.sendMessage(new Message(null, msg));
 		} else if (evt.getSource().equals(slackBot)) {
 			String[] usernames = ircBot.getChannelUsers();
-			String msg = "Users in IRC: ";
-			for (String username : usernames) {
-				msg += username + ", ";
+			String msg = joinUsernames("Users in IRC: ", usernames);
+			l.trace("msg = {}", msg);
+			slackBot.sendMessage(new Message(null, msg));
+		}
+	}
+
+	/**
+	 * <p>
+	 * Joins the given usernames separated by commas.
+	 * </p>
+	 * 
+	 * @param prefix
+	 *            Prefix of the result
+	 * @param usernames
+	 *            Usernames
+	 * @return Prefix followed by the usernames
+	 */
+	private static String joinUsernames(String prefix, String[] usernames) {
+		StringBuilder sb = new StringBuilder(prefix);
+		for (int i = 0; i < usernames.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
 			}
-			l.trace("msg.substring(0, msg.length() - 2) = " + msg.substring(0, msg.length() - 2));
-			slackBot.sendMessage(new Message(null, msg.substring(0, msg.length() - 2)));
+			sb.append(usernames[i]);
 		}
+		return sb.toString();
 	}
 
 	/**
@@ -174,27 +377,122 @@ public class Slack2IrcBridge implements PropertyChangeListener {
 	 * both networks.
 	 * </p>
 	 */
+	@SuppressWarnings("unchecked")
 	public void propertyChange(PropertyChangeEvent evt) {
-		l.trace("evt.source.class = " + evt.getSource().getClass());
+		l.trace("evt.source.class = {}", evt.getSource().getClass());
 		if (evt.getPropertyName().equals("postedMessage")) {
 			Message message = (Message) evt.getNewValue();
 			if (message.getContent().startsWith("?")) {
 				l.trace("Processing command event");
 				processCommandEvent(evt);
-			} else if (evt.getSource().equals(ircBot)) {
-				slackBot.sendMessage((Message) evt.getNewValue());
-			} else if (evt.getSource().equals(slackBot)) {
-				ircBot.sendMessage((Message) evt.getNewValue());
+			} else {
+				relay(evt);
 			}
 		} else if (evt.getPropertyName().equals("joinPartQuitMessage")) {
-			if (evt.getSource().equals(ircBot)) {
-				slackBot.sendMessage((Message) evt.getNewValue());
-			} else if (evt.getSource().equals(slackBot)) {
-				ircBot.sendMessage((Message) evt.getNewValue());
+			relay(evt);
+		} else if (evt.getPropertyName().equals("customEmojis") && emojis != null) {
+			l.debug("Merging custom emojis into emoji replacements");
+			emojis.setCustomEmojis((Map<String, String>) evt.getNewValue());
+		} else if (evt.getPropertyName().equals("active") && evt.getSource().equals(lease)) {
+			synchronized (relayLock) {
+				caughtUp = false;
+				if (lease.isActive()) {
+					relayRecentMessages();
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Relays the message of the given event to the other network. In high
+	 * availability mode the message is buffered and only relayed if this
+	 * instance holds the lease.
+	 * </p>
+	 * 
+	 * @param evt
+	 *            Event
+	 */
+	private void relay(PropertyChangeEvent evt) {
+		Message message = (Message) evt.getNewValue();
+		byte direction;
+		if (evt.getSource().equals(ircBot)) {
+			direction = TranscriptRecord.IRC_TO_SLACK;
+		} else if (evt.getSource().equals(slackBot)) {
+			direction = TranscriptRecord.SLACK_TO_IRC;
+		} else {
+			return;
+		}
+
+		if (lease == null) {
+			forward(direction, message);
+		} else if (!lease.isPeerMessage(direction, message)) {
+			synchronized (relayLock) {
+				recentMessages.add(direction, message);
+				if (lease.isActive()) {
+					relayRecentMessages();
+					forward(direction, message);
+				}
 			}
 		}
 	}
 
+	/**
+	 * <p>
+	 * Relays the messages received after the last messages relayed by the
+	 * previous holder of the lease unless this has already been done since
+	 * taking over the lease. Must be called while holding
+	 * <code>relayLock</code>.
+	 * </p>
+	 */
+	private void relayRecentMessages() {
+		if (caughtUp) {
+			return;
+		}
+		for (byte direction : new byte[] { TranscriptRecord.IRC_TO_SLACK, TranscriptRecord.SLACK_TO_IRC }) {
+			List<Message> messages = recentMessages.since(direction, lease.getAckFingerprints(direction), lease);
+			l.info("Relaying " + messages.size() + " messages received before taking over the lease");
+			for (Message message : messages) {
+				forward(direction, message);
+			}
+		}
+		caughtUp = true;
+	}
+
+	/**
+	 * <p>
+	 * Sends the given message to the network of the given direction and
+	 * appends it to the transcript. Messages dropped by the content filter are
+	 * not relayed.
+	 * </p>
+	 * 
+	 * @param direction
+	 *            Direction of the message (as defined by
+	 *            <code>TranscriptRecord</code>)
+	 * @param message
+	 *            Message to relay
+	 */
+	private void forward(byte direction, Message message) {
+		Message relayedMessage = message;
+		if (direction == TranscriptRecord.IRC_TO_SLACK) {
+			if (contentFilter == null || (relayedMessage = contentFilter.filterFromIrc(message)) != null) {
+				slackBot.sendMessage(relayedMessage);
+			}
+		} else {
+			if (contentFilter == null || (relayedMessage = contentFilter.filterFromSlack(message)) != null) {
+				ircBot.sendMessage(relayedMessage);
+			}
+		}
+		if (relayedMessage != null && transcriptWriter != null) {
+			transcriptWriter.append(direction, relayedMessage);
+		}
+		if (lease != null) {
+			// acknowledge the received message, which is also known to the
+			// other instances
+			lease.acknowledge(direction, message);
+		}
+	}
+
 	/**
 	 * <p>
 	 * Parses the command line call and starts the bridge with the given
@@ -0,0 +1,418 @@
+package de.justeazy.slack2irc.filter;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Filter of relayed messages that drops messages or redacts parts of their
+ * content according to the rules of the file given by the property
+ * "filterRules". Every line of the file is a rule of the form
+ * <code>&lt;action&gt; &lt;scope&gt; &lt;type&gt; &lt;pattern&gt;</code> (see
+ * <code>FilterRule</code>), lines starting with <code>#</code> are comments.
+ * </p>
+ * <p>
+ * The rules are compiled per network and action: all literals into one
+ * Aho-Corasick automaton and all senders into one map, so their cost does not
+ * grow with the number of rules. The regular expressions are additionally
+ * combined into one alternation which is searched first, so a message which
+ * matches none of them costs a single pass. Only if the alternation matches,
+ * every regular expression is evaluated on its own to attribute the hits to
+ * its rule. Regular expressions with back references, named groups or
+ * <code>\G</code> can't be combined (their meaning depends on their own
+ * groups and matches) and always cost an own pass over the content. All drop
+ * rules are evaluated before any redaction, so the order of the rules doesn't
+ * matter.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class ContentFilter {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(ContentFilter.class);
+
+	/**
+	 * Regular expressions which can't be part of an alternation: back
+	 * references, named groups and the end of the previous match
+	 */
+	private static final Pattern UNCOMBINABLE = Pattern.compile("\\\\([1-9]|k<|G)|\\(\\?<[a-zA-Z]");
+
+	/**
+	 * <p>
+	 * Compiled rules of one action for the messages coming from one network.
+	 * </p>
+	 */
+	private static class RuleSet {
+
+		/**
+		 * Automaton of the literals
+		 */
+		private LiteralMatcher literals = new LiteralMatcher();
+
+		/**
+		 * Regular expressions
+		 */
+		private Pattern[] regexes = new Pattern[0];
+
+		/**
+		 * Rules of the regular expressions
+		 */
+		private int[] regexRules = new int[0];
+
+		/**
+		 * Whether the regular expressions are part of the prefilter
+		 */
+		private boolean[] prefiltered = new boolean[0];
+
+		/**
+		 * Alternation of the combinable regular expressions (<code>null</code>
+		 * if there are less than two)
+		 */
+		private Pattern prefilter;
+
+		/**
+		 * Rules by the lower case username of their sender
+		 */
+		private Map<String, int[]> senders = new HashMap<String, int[]>();
+
+	}
+
+	/**
+	 * All rules in the order of the rules file
+	 */
+	private FilterRule[] rules;
+
+	/**
+	 * Hit counters of the rules
+	 */
+	private AtomicLongArray hits;
+
+	/**
+	 * Replacement of redacted text
+	 */
+	private String redaction;
+
+	/**
+	 * Compiled regular expressions of the rules (<code>null</code> for other
+	 * types)
+	 */
+	private Pattern[] patterns;
+
+	/**
+	 * Drop rules for messages coming from IRC
+	 */
+	private RuleSet ircDropRules;
+
+	/**
+	 * Redact rules for messages coming from IRC
+	 */
+	private RuleSet ircRedactRules;
+
+	/**
+	 * Drop rules for messages coming from Slack
+	 */
+	private RuleSet slackDropRules;
+
+	/**
+	 * Redact rules for messages coming from Slack
+	 */
+	private RuleSet slackRedactRules;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>ContentFilter</code> and compiles the rules
+	 * of the file given by the property "filterRules".
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties to configure the filter
+	 * @throws IOException
+	 *             If the rules file can't be read or contains an invalid rule
+	 */
+	public ContentFilter(Properties properties) throws IOException {
+		this.redaction = properties.getProperty("filterRedaction", "[redacted]");
+		String rulesFile = properties.getProperty("filterRules");
+		List<FilterRule> ruleList = new ArrayList<FilterRule>();
+		BufferedReader reader = new BufferedReader(new FileReader(rulesFile));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					ruleList.add(parseRule(line, lineNumber, rulesFile));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		rules = ruleList.toArray(new FilterRule[ruleList.size()]);
+		hits = new AtomicLongArray(rules.length);
+		patterns = new Pattern[rules.length];
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i].getType().equals(FilterRule.REGEX)) {
+				patterns[i] = Pattern.compile(rules[i].getPattern());
+			}
+		}
+		ircDropRules = compile(true, true);
+		ircRedactRules = compile(true, false);
+		slackDropRules = compile(false, true);
+		slackRedactRules = compile(false, false);
+		l.debug("Compiled " + rules.length + " filter rules from " + rulesFile);
+	}
+
+	/**
+	 * <p>
+	 * Parses a line of the rules file.
+	 * </p>
+	 * 
+	 * @param line
+	 *            Trimmed line
+	 * @param lineNumber
+	 *            Number of the line
+	 * @param rulesFile
+	 *            Name of the rules file
+	 * @return Rule
+	 * @throws IOException
+	 *             If the line is no valid rule
+	 */
+	private static FilterRule parseRule(String line, int lineNumber, String rulesFile) throws IOException {
+		String[] fields = line.split("\\s+", 4);
+		if (fields.length < 4) {
+			throw new IOException(rulesFile + ":" + lineNumber + ": expected <action> <scope> <type> <pattern>");
+		}
+		String action = fields[0].toLowerCase();
+		String scope = fields[1].toLowerCase();
+		String type = fields[2].toLowerCase();
+		if (!action.equals(FilterRule.DROP) && !action.equals(FilterRule.REDACT)) {
+			throw new IOException(rulesFile + ":" + lineNumber + ": unknown action " + fields[0]);
+		}
+		if (!scope.equals(FilterRule.IRC) && !scope.equals(FilterRule.SLACK) && !scope.equals(FilterRule.BOTH)) {
+			throw new IOException(rulesFile + ":" + lineNumber + ": unknown scope " + fields[1]);
+		}
+		if (type.equals(FilterRule.REGEX)) {
+			try {
+				Pattern.compile(fields[3]);
+			} catch (PatternSyntaxException e) {
+				throw new IOException(rulesFile + ":" + lineNumber + ": invalid regular expression: "
+						+ e.getDescription(), e);
+			}
+		} else if (!type.equals(FilterRule.LITERAL) && !type.equals(FilterRule.SENDER)) {
+			throw new IOException(rulesFile + ":" + lineNumber + ": unknown type " + fields[2]);
+		}
+		return new FilterRule(action, scope, type, fields[3], lineNumber);
+	}
+
+	/**
+	 * <p>
+	 * Compiles the rules of one action for the messages coming from one
+	 * network.
+	 * </p>
+	 * 
+	 * @param irc
+	 *            <code>true</code> for messages coming from IRC,
+	 *            <code>false</code> for messages coming from Slack
+	 * @param drop
+	 *            <code>true</code> for the drop rules, <code>false</code> for
+	 *            the redact rules
+	 * @return Compiled rules
+	 */
+	private RuleSet compile(boolean irc, boolean drop) {
+		RuleSet ruleSet = new RuleSet();
+		List<Integer> regexRules = new ArrayList<Integer>();
+
+		for (int i = 0; i < rules.length; i++) {
+			FilterRule rule = rules[i];
+			if ((irc ? !rule.appliesToIrc() : !rule.appliesToSlack()) || rule.isDrop() != drop) {
+				continue;
+			}
+			if (rule.getType().equals(FilterRule.LITERAL)) {
+				ruleSet.literals.add(rule.getPattern(), i);
+			} else if (rule.getType().equals(FilterRule.REGEX)) {
+				regexRules.add(i);
+			} else {
+				String sender = rule.getPattern().toLowerCase();
+				int[] senderRules = ruleSet.senders.get(sender);
+				int[] newSenderRules = new int[senderRules == null ? 1 : senderRules.length + 1];
+				if (senderRules != null) {
+					System.arraycopy(senderRules, 0, newSenderRules, 0, senderRules.length);
+				}
+				newSenderRules[newSenderRules.length - 1] = i;
+				ruleSet.senders.put(sender, newSenderRules);
+			}
+		}
+
+		ruleSet.literals.build();
+		ruleSet.regexes = new Pattern[regexRules.size()];
+		ruleSet.regexRules = new int[regexRules.size()];
+		ruleSet.prefiltered = new boolean[regexRules.size()];
+		StringBuilder alternation = new StringBuilder();
+		int combined = 0;
+		for (int i = 0; i < ruleSet.regexRules.length; i++) {
+			ruleSet.regexRules[i] = regexRules.get(i);
+			ruleSet.regexes[i] = patterns[regexRules.get(i)];
+			String regex = rules[regexRules.get(i)].getPattern();
+			if (!UNCOMBINABLE.matcher(regex).find()) {
+				// the group keeps inline flags from applying to the other
+				// alternatives
+				alternation.append(combined > 0 ? "|(?:" : "(?:").append(regex).append(')');
+				ruleSet.prefiltered[i] = true;
+				combined++;
+			}
+		}
+		if (combined > 1) {
+			ruleSet.prefilter = Pattern.compile(alternation.toString());
+		} else {
+			ruleSet.prefiltered = new boolean[regexRules.size()];
+		}
+		return ruleSet;
+	}
+
+	/**
+	 * <p>
+	 * Filters a message coming from IRC.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Message to filter
+	 * @return Given message if no rule matched, message with redacted content
+	 *         or <code>null</code> if the message is dropped
+	 */
+	public Message filterFromIrc(Message message) {
+		return filter(message, ircDropRules, ircRedactRules);
+	}
+
+	/**
+	 * <p>
+	 * Filters a message coming from Slack.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Message to filter
+	 * @return Given message if no rule matched, message with redacted content
+	 *         or <code>null</code> if the message is dropped
+	 */
+	public Message filterFromSlack(Message message) {
+		return filter(message, slackDropRules, slackRedactRules);
+	}
+
+	/**
+	 * <p>
+	 * Filters the given message with the given rules. The redact rules are
+	 * only evaluated if no drop rule matched.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Message to filter
+	 * @param dropRules
+	 *            Compiled drop rules
+	 * @param redactRules
+	 *            Compiled redact rules
+	 * @return Given message if no rule matched, message with redacted content
+	 *         or <code>null</code> if the message is dropped
+	 */
+	private Message filter(Message message, RuleSet dropRules, RuleSet redactRules) {
+		Evaluation evaluation = new Evaluation(rules, hits, message.getContent().length());
+		evaluate(message, dropRules, evaluation);
+		if (!evaluation.isDropped()) {
+			evaluate(message, redactRules, evaluation);
+		}
+		return evaluation.getResult(message, redaction);
+	}
+
+	/**
+	 * <p>
+	 * Evaluates the given rules for the given message.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Message to filter
+	 * @param ruleSet
+	 *            Compiled rules
+	 * @param evaluation
+	 *            Evaluation of the message
+	 */
+	private void evaluate(Message message, RuleSet ruleSet, Evaluation evaluation) {
+		String content = message.getContent();
+		if (message.getUsername() != null && !ruleSet.senders.isEmpty()) {
+			int[] senderRules = ruleSet.senders.get(message.getUsername().toLowerCase());
+			if (senderRules != null) {
+				for (int rule : senderRules) {
+					evaluation.hit(rule, 0, content.length());
+				}
+			}
+		}
+
+		ruleSet.literals.scan(content, evaluation);
+
+		// the combined regular expressions are only evaluated one by one if
+		// any of them matches
+		boolean prefilterMatched = ruleSet.prefilter == null || evaluation.isDropped()
+				|| ruleSet.prefilter.matcher(content).find();
+		for (int i = 0; i < ruleSet.regexes.length && !evaluation.isDropped(); i++) {
+			if (ruleSet.prefiltered[i] && !prefilterMatched) {
+				continue;
+			}
+			Matcher m = ruleSet.regexes[i].matcher(content);
+			while (!evaluation.isDropped() && m.find()) {
+				evaluation.hit(ruleSet.regexRules[i], m.start(), m.end());
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the rules in the order of the rules file.
+	 * </p>
+	 * 
+	 * @return Rules
+	 */
+	public FilterRule[] getRules() {
+		return rules.clone();
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of hits of the given rule.
+	 * </p>
+	 * 
+	 * @param rule
+	 *            Index of the rule
+	 * @return Number of hits
+	 */
+	public long getHits(int rule) {
+		return hits.get(rule);
+	}
+
+	/**
+	 * <p>
+	 * Logs the rules with their number of hits.
+	 * </p>
+	 */
+	public void logStatistics() {
+		for (int i = 0; i < rules.length; i++) {
+			l.info("Filter rule in line " + rules[i].getLine() + " (" + rules[i] + "): " + hits.get(i) + " hits");
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package de.justeazy.slack2irc.filter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Evaluation of the filter rules for a single message. Collects the hits of
+ * the rules and builds the filtered message.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+class Evaluation {
+
+	/**
+	 * Rules of the filter
+	 */
+	private FilterRule[] rules;
+
+	/**
+	 * Hit counters of the rules
+	 */
+	private AtomicLongArray hits;
+
+	/**
+	 * Length of the content
+	 */
+	private int length;
+
+	/**
+	 * Whether a rule dropped the message
+	 */
+	private boolean dropped = false;
+
+	/**
+	 * Redacted characters of the content (<code>null</code> until a rule
+	 * redacts something)
+	 */
+	private boolean[] redacted;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>Evaluation</code>.
+	 * </p>
+	 * 
+	 * @param rules
+	 *            Rules of the filter
+	 * @param hits
+	 *            Hit counters of the rules
+	 * @param length
+	 *            Length of the content
+	 */
+	Evaluation(FilterRule[] rules, AtomicLongArray hits, int length) {
+		this.rules = rules;
+		this.hits = hits;
+		this.length = length;
+	}
+
+	/**
+	 * <p>
+	 * Records a hit of the given rule.
+	 * </p>
+	 * 
+	 * @param rule
+	 *            Index of the rule
+	 * @param start
+	 *            Start of the matched text
+	 * @param end
+	 *            End of the matched text (exclusive)
+	 */
+	void hit(int rule, int start, int end) {
+		hits.incrementAndGet(rule);
+		if (rules[rule].isDrop()) {
+			dropped = true;
+		} else if (start < end) {
+			if (redacted == null) {
+				redacted = new boolean[length];
+			}
+			for (int i = start; i < end; i++) {
+				redacted[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks whether a rule dropped the message.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the message is dropped
+	 */
+	boolean isDropped() {
+		return dropped;
+	}
+
+	/**
+	 * <p>
+	 * Returns the filtered message.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Evaluated message
+	 * @param redaction
+	 *            Replacement of redacted text
+	 * @return Given message if no rule matched, message with redacted content
+	 *         or <code>null</code> if the message is dropped
+	 */
+	Message getResult(Message message, String redaction) {
+		if (dropped) {
+			return null;
+		}
+		if (redacted == null) {
+			return message;
+		}
+		String content = message.getContent();
+		StringBuilder sb = new StringBuilder(length + redaction.length());
+		for (int i = 0; i < length; i++) {
+			if (!redacted[i]) {
+				sb.append(content.charAt(i));
+			} else if (i == 0 || !redacted[i - 1]) {
+				sb.append(redaction);
+			}
+		}
+		return new Message(message.getUsername(), sb.toString());
+	}
+
+}
@@ -0,0 +1,204 @@
+package de.justeazy.slack2irc.filter;
+
+/**
+ * <p>
+ * Single rule of the content filter as given by a line of the rules file:
+ * <code>&lt;action&gt; &lt;scope&gt; &lt;type&gt; &lt;pattern&gt;</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class FilterRule {
+
+	/**
+	 * Action to drop the whole message
+	 */
+	public static final String DROP = "drop";
+
+	/**
+	 * Action to redact the matched text (or the whole content for sender
+	 * rules)
+	 */
+	public static final String REDACT = "redact";
+
+	/**
+	 * Scope of messages coming from IRC
+	 */
+	public static final String IRC = "irc";
+
+	/**
+	 * Scope of messages coming from Slack
+	 */
+	public static final String SLACK = "slack";
+
+	/**
+	 * Scope of messages coming from both networks
+	 */
+	public static final String BOTH = "both";
+
+	/**
+	 * Type of rules matching a literal text (case-insensitive)
+	 */
+	public static final String LITERAL = "literal";
+
+	/**
+	 * Type of rules matching a regular expression
+	 */
+	public static final String REGEX = "regex";
+
+	/**
+	 * Type of rules matching the username of the sender (case-insensitive)
+	 */
+	public static final String SENDER = "sender";
+
+	/**
+	 * Action of the rule
+	 */
+	private String action;
+
+	/**
+	 * Scope of the rule
+	 */
+	private String scope;
+
+	/**
+	 * Type of the rule
+	 */
+	private String type;
+
+	/**
+	 * Pattern of the rule
+	 */
+	private String pattern;
+
+	/**
+	 * Line of the rule in the rules file
+	 */
+	private int line;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>FilterRule</code>.
+	 * </p>
+	 * 
+	 * @param action
+	 *            <code>DROP</code> or <code>REDACT</code>
+	 * @param scope
+	 *            <code>IRC</code>, <code>SLACK</code> or <code>BOTH</code>
+	 * @param type
+	 *            <code>LITERAL</code>, <code>REGEX</code> or
+	 *            <code>SENDER</code>
+	 * @param pattern
+	 *            Pattern of the rule
+	 * @param line
+	 *            Line of the rule in the rules file
+	 */
+	public FilterRule(String action, String scope, String type, String pattern, int line) {
+		this.action = action;
+		this.scope = scope;
+		this.type = type;
+		this.pattern = pattern;
+		this.line = line;
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the rule drops the whole message.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the action is <code>DROP</code>
+	 */
+	public boolean isDrop() {
+		return DROP.equals(action);
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the rule applies to messages coming from IRC.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the scope is <code>IRC</code> or
+	 *         <code>BOTH</code>
+	 */
+	public boolean appliesToIrc() {
+		return IRC.equals(scope) || BOTH.equals(scope);
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the rule applies to messages coming from Slack.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the scope is <code>SLACK</code> or
+	 *         <code>BOTH</code>
+	 */
+	public boolean appliesToSlack() {
+		return SLACK.equals(scope) || BOTH.equals(scope);
+	}
+
+	/**
+	 * <p>
+	 * Returns the action of the rule.
+	 * </p>
+	 * 
+	 * @return Action
+	 */
+	public String getAction() {
+		return action;
+	}
+
+	/**
+	 * <p>
+	 * Returns the scope of the rule.
+	 * </p>
+	 * 
+	 * @return Scope
+	 */
+	public String getScope() {
+		return scope;
+	}
+
+	/**
+	 * <p>
+	 * Returns the type of the rule.
+	 * </p>
+	 * 
+	 * @return Type
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * <p>
+	 * Returns the pattern of the rule.
+	 * </p>
+	 * 
+	 * @return Pattern
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * <p>
+	 * Returns the line of the rule in the rules file.
+	 * </p>
+	 * 
+	 * @return Line number
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * <p>
+	 * Returns the rule as written in the rules file.
+	 * </p>
+	 */
+	@Override
+	public String toString() {
+		return action + " " + scope + " " + type + " " + pattern;
+	}
+
+}
@@ -0,0 +1,204 @@
+package de.justeazy.slack2irc.filter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * <p>
+ * Aho-Corasick automaton of the literals of the filter rules. A text is
+ * scanned once for all literals (case-insensitive), so the cost does not grow
+ * with the number of literals.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+class LiteralMatcher {
+
+	/**
+	 * <p>
+	 * Node of the automaton.
+	 * </p>
+	 */
+	private static class Node {
+
+		/**
+		 * Sorted characters of the children
+		 */
+		private char[] labels = new char[0];
+
+		/**
+		 * Children in the order of their characters
+		 */
+		private Node[] children = new Node[0];
+
+		/**
+		 * Longest proper suffix of this node that is also a node
+		 */
+		private Node fail;
+
+		/**
+		 * Rules whose literals end at this node (including the rules of the
+		 * fail nodes)
+		 */
+		private int[] rules = new int[0];
+
+		/**
+		 * Lengths of the literals of the rules
+		 */
+		private int[] lengths = new int[0];
+
+		/**
+		 * <p>
+		 * Returns the child of the given character.
+		 * </p>
+		 * 
+		 * @param c
+		 *            Lower case character
+		 * @return Child or <code>null</code> if there is none
+		 */
+		private Node get(char c) {
+			int i = Arrays.binarySearch(labels, c);
+			return i >= 0 ? children[i] : null;
+		}
+
+		/**
+		 * <p>
+		 * Returns the child of the given character and adds it if there is
+		 * none.
+		 * </p>
+		 * 
+		 * @param c
+		 *            Lower case character
+		 * @return Child
+		 */
+		private Node getOrAdd(char c) {
+			int i = Arrays.binarySearch(labels, c);
+			if (i >= 0) {
+				return children[i];
+			}
+			i = -i - 1;
+			char[] newLabels = new char[labels.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, i);
+			System.arraycopy(children, 0, newChildren, 0, i);
+			newLabels[i] = c;
+			newChildren[i] = new Node();
+			System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+			System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+			labels = newLabels;
+			children = newChildren;
+			return newChildren[i];
+		}
+
+		/**
+		 * <p>
+		 * Adds the given rules to the rules of this node.
+		 * </p>
+		 * 
+		 * @param addedRules
+		 *            Rules to add
+		 * @param addedLengths
+		 *            Lengths of the literals of the rules
+		 */
+		private void addRules(int[] addedRules, int[] addedLengths) {
+			if (addedRules.length == 0) {
+				return;
+			}
+			int[] newRules = Arrays.copyOf(rules, rules.length + addedRules.length);
+			int[] newLengths = Arrays.copyOf(lengths, lengths.length + addedLengths.length);
+			System.arraycopy(addedRules, 0, newRules, rules.length, addedRules.length);
+			System.arraycopy(addedLengths, 0, newLengths, lengths.length, addedLengths.length);
+			rules = newRules;
+			lengths = newLengths;
+		}
+
+	}
+
+	/**
+	 * Root of the automaton
+	 */
+	private Node root = new Node();
+
+	/**
+	 * Whether the automaton contains any literal
+	 */
+	private boolean empty = true;
+
+	/**
+	 * <p>
+	 * Adds the literal of the given rule.
+	 * </p>
+	 * 
+	 * @param literal
+	 *            Literal (not empty)
+	 * @param rule
+	 *            Index of the rule
+	 */
+	void add(String literal, int rule) {
+		Node node = root;
+		for (int i = 0; i < literal.length(); i++) {
+			node = node.getOrAdd(Character.toLowerCase(literal.charAt(i)));
+		}
+		node.addRules(new int[] { rule }, new int[] { literal.length() });
+		empty = false;
+	}
+
+	/**
+	 * <p>
+	 * Computes the fail nodes after all literals have been added.
+	 * </p>
+	 */
+	void build() {
+		Queue<Node> queue = new ArrayDeque<Node>();
+		for (Node child : root.children) {
+			child.fail = root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.remove();
+			for (int i = 0; i < node.children.length; i++) {
+				char c = node.labels[i];
+				Node child = node.children[i];
+				Node fail = node.fail;
+				while (fail != root && fail.get(c) == null) {
+					fail = fail.fail;
+				}
+				Node target = fail.get(c);
+				child.fail = target != null ? target : root;
+				child.addRules(child.fail.rules, child.fail.lengths);
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Scans the given text and reports every occurrence of a literal to the
+	 * given evaluation.
+	 * </p>
+	 * 
+	 * @param text
+	 *            Text to scan
+	 * @param evaluation
+	 *            Evaluation of the message
+	 */
+	void scan(String text, Evaluation evaluation) {
+		if (empty) {
+			return;
+		}
+		Node node = root;
+		for (int i = 0; i < text.length() && !evaluation.isDropped(); i++) {
+			char c = Character.toLowerCase(text.charAt(i));
+			Node next;
+			while ((next = node.get(c)) == null && node != root) {
+				node = node.fail;
+			}
+			node = next != null ? next : root;
+			for (int k = 0; k < node.rules.length; k++) {
+				evaluation.hit(node.rules[k], i + 1 - node.lengths[k], i + 1);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,730 @@
+package de.justeazy.slack2irc.ha;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.justeazy.slack2irc.Message;
+import de.justeazy.slack2irc.irc.IrcNicks;
+import de.justeazy.slack2irc.transcript.TranscriptRecord;
+
+/**
+ * <p>
+ * Lease of an instance of the bridge in high availability mode. Several
+ * instances share a lease file (e.g., on shared storage) and only the holder
+ * of the lease relays messages. The holder renews the lease every third of the
+ * failover time and stops relaying as soon as its lease expires without being
+ * renewed. Another instance takes over when the lease has expired.
+ * </p>
+ * <p>
+ * The lease file also holds the fingerprints of the last relayed messages of
+ * each direction, so an instance taking over can continue right after them.
+ * The holder keeps them in memory and writes them every acknowledgement
+ * interval, so after a crash of the holder the messages relayed during the
+ * last interval are relayed again. Every instance also writes the IRC nicks it currently uses to the
+ * lease file, so the other instances can ignore their messages. The file is
+ * only accessed by the thread of the lease while holding a lock on it. Changes
+ * of the lease are fired for the property "active" by that thread.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class LeaseManager {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(LeaseManager.class);
+
+	/**
+	 * Magic number at the start of the lease file ("S2L2")
+	 */
+	private static final int MAGIC = 0x53324C32;
+
+	/**
+	 * Maximum size of the lease record in bytes
+	 */
+	private static final int RECORD_SIZE = 65536;
+
+	/**
+	 * Number of directions (as defined by <code>TranscriptRecord</code>)
+	 */
+	private static final int DIRECTIONS = 2;
+
+	/**
+	 * Number of the last relayed messages of a direction whose fingerprints
+	 * identify the position of the holder in the messages of that direction
+	 */
+	public static final int ACK_WINDOW = 4;
+
+	/**
+	 * Maximum number of nicks of an instance in the lease file
+	 */
+	private static final int MAX_NICKS = 500;
+
+	/**
+	 * Number of failover times after which the nicks of an instance which
+	 * stopped renewing them are removed from the lease file
+	 */
+	private static final int MEMBER_EXPIRY = 10;
+
+	/**
+	 * Charset of the strings in the lease file
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * ID of this instance
+	 */
+	private String instanceId;
+
+	/**
+	 * Time after which a lease that has not been renewed expires in
+	 * milliseconds
+	 */
+	private long failoverTime;
+
+	/**
+	 * Time between two writes of the acknowledgements in milliseconds
+	 */
+	private long ackInterval;
+
+	/**
+	 * Bot whose IRC nicks are written to the lease file (<code>null</code> if
+	 * unknown)
+	 */
+	private IrcNicks ircNicks;
+
+	/**
+	 * Lease file
+	 */
+	private RandomAccessFile file;
+
+	/**
+	 * Channel of the lease file
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Buffer of the lease record
+	 */
+	private ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+	/**
+	 * Owner of the lease as read from the lease file (<code>null</code> if
+	 * none)
+	 */
+	private String recordOwner;
+
+	/**
+	 * Expiry of the lease as read from the lease file
+	 */
+	private long recordExpiry;
+
+	/**
+	 * Acknowledgements as read from the lease file by direction
+	 */
+	private int[][] recordAckFingerprints = new int[DIRECTIONS][];
+
+	/**
+	 * Instances with their nicks as read from the lease file
+	 */
+	private List<Member> members = new ArrayList<Member>();
+
+	/**
+	 * Lower case IRC nicks of the other instances
+	 */
+	private volatile Set<String> peerNicks = Collections.emptySet();
+
+	/**
+	 * Whether this instance holds the lease
+	 */
+	private volatile boolean active = false;
+
+	/**
+	 * Expiry of the lease of this instance in milliseconds since the epoch
+	 */
+	private volatile long expiry = 0;
+
+	/**
+	 * Lock of the acknowledgements, which are updated by the relaying thread
+	 */
+	private final Object ackLock = new Object();
+
+	/**
+	 * Rings of the fingerprints of the last relayed messages by direction
+	 */
+	private int[][] ackFingerprints = new int[DIRECTIONS][ACK_WINDOW];
+
+	/**
+	 * Number of the relayed messages by direction
+	 */
+	private long[] ackCounts = new long[DIRECTIONS];
+
+	/**
+	 * Whether there are acknowledgements which have not been written
+	 */
+	private boolean acksDirty = false;
+
+	/**
+	 * Support for property changes (listen for property "active" to get
+	 * informed about taking over or losing the lease)
+	 */
+	private PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+
+	/**
+	 * Executor of the renewals and of the writes of the acknowledgements
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Whether the lease has been closed
+	 */
+	private boolean closed = false;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>LeaseManager</code> and opens the lease
+	 * file given by the property "haLeaseFile".
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties to configure the lease
+	 * @throws IOException
+	 *             If the lease file can't be opened
+	 */
+	public LeaseManager(Properties properties) throws IOException {
+		instanceId = properties.getProperty("haInstanceId", ManagementFactory.getRuntimeMXBean().getName());
+		failoverTime = TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty("haFailoverTime", "30")));
+		ackInterval = TimeUnit.SECONDS.toMillis(Long.parseLong(properties.getProperty("haAckInterval", "1")));
+		file = new RandomAccessFile(properties.getProperty("haLeaseFile"), "rw");
+		channel = file.getChannel();
+	}
+
+	/**
+	 * <p>
+	 * Sets the bot whose IRC nicks are written to the lease file.
+	 * </p>
+	 * 
+	 * @param ircNicks
+	 *            IRC bot of this instance
+	 */
+	public void setIrcNicks(IrcNicks ircNicks) {
+		this.ircNicks = ircNicks;
+	}
+
+	/**
+	 * <p>
+	 * Starts the scheduled renewals of the lease and writes of the
+	 * acknowledgements. The lease is released by a shutdown hook.
+	 * </p>
+	 */
+	public void start() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ha-lease");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				renew();
+			}
+		}, 0, failoverTime / 3, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				writeAcks();
+			}
+		}, ackInterval, ackInterval, TimeUnit.MILLISECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Acquires or renews the lease if it is held by this instance or has
+	 * expired and updates the nicks of this instance. Fires the property
+	 * "active" if this instance took over or lost the lease.
+	 * </p>
+	 */
+	void renew() {
+		boolean wasActive = isActive();
+		boolean acquired;
+		synchronized (this) {
+			try {
+				FileLock lock = channel.lock();
+				try {
+					long now = System.currentTimeMillis();
+					readRecord();
+					acquired = instanceId.equals(recordOwner) || recordExpiry < now;
+					if (acquired) {
+						if (!instanceId.equals(recordOwner)) {
+							// continue after the last messages relayed by the
+							// previous holder
+							takeOverAcks();
+						}
+						expiry = now + failoverTime;
+					}
+					updateMembers(now);
+					writeRecord(acquired);
+					channel.force(false);
+				} finally {
+					lock.release();
+				}
+			} catch (IOException e) {
+				// keep the lease until it expires, isActive() fences this
+				// instance
+				l.error("Error renewing the lease", e);
+				return;
+			}
+		}
+
+		// fire outside of the lock, the listeners relay messages
+		if (acquired && !wasActive) {
+			l.info("Instance " + instanceId + " took over the lease");
+			active = true;
+			pcs.firePropertyChange("active", false, true);
+		} else if (!acquired && active) {
+			l.info("Instance " + instanceId + " lost the lease");
+			active = false;
+			pcs.firePropertyChange("active", true, false);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes the acknowledgements to the lease file if this instance holds
+	 * the lease and messages have been relayed since the last write.
+	 * </p>
+	 */
+	synchronized void writeAcks() {
+		synchronized (ackLock) {
+			if (!acksDirty || !isActive()) {
+				return;
+			}
+		}
+		try {
+			FileLock lock = channel.lock();
+			try {
+				readRecord();
+				if (instanceId.equals(recordOwner)) {
+					writeRecord(true);
+				}
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			l.error("Error writing the acknowledgements", e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks whether this instance holds an unexpired lease and may relay
+	 * messages.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if this instance is active
+	 */
+	public boolean isActive() {
+		return active && System.currentTimeMillis() < expiry;
+	}
+
+	/**
+	 * <p>
+	 * Records the given message as last relayed message of the given
+	 * direction. The acknowledgement is written to the lease file by the
+	 * thread of the lease.
+	 * </p>
+	 * 
+	 * @param direction
+	 *            Direction of the message (as defined by
+	 *            <code>TranscriptRecord</code>)
+	 * @param message
+	 *            Relayed message
+	 */
+	public void acknowledge(byte direction, Message message) {
+		int fingerprint = fingerprint(message);
+		synchronized (ackLock) {
+			ackFingerprints[direction][(int) (ackCounts[direction]++ % ACK_WINDOW)] = fingerprint;
+			acksDirty = true;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the fingerprints of the last relayed messages of the given
+	 * direction.
+	 * </p>
+	 * 
+	 * @param direction
+	 *            Direction (as defined by <code>TranscriptRecord</code>)
+	 * @return Fingerprints from the oldest to the newest message (at most
+	 *         <code>ACK_WINDOW</code>)
+	 */
+	public int[] getAckFingerprints(byte direction) {
+		synchronized (ackLock) {
+			int length = (int) Math.min(ackCounts[direction], ACK_WINDOW);
+			int[] fingerprints = new int[length];
+			for (int i = 0; i < length; i++) {
+				fingerprints[i] = ackFingerprints[direction][(int) ((ackCounts[direction] - length + i) % ACK_WINDOW)];
+			}
+			return fingerprints;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the fingerprint of the given message, which is the same in all
+	 * instances receiving it. Messages with an ID (like the timestamp of a
+	 * Slack message) are identified by it, other messages by their username
+	 * and content.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Message
+	 * @return Fingerprint
+	 */
+	public static int fingerprint(Message message) {
+		if (message.getId() != null) {
+			return message.getId().hashCode();
+		}
+		int hash = message.getUsername() != null ? message.getUsername().hashCode() : 0;
+		return 31 * hash + message.getContent().hashCode();
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the given message of the given direction was sent by the
+	 * IRC bot or a puppet of another instance of the bridge (as written to the
+	 * lease file by that instance).
+	 * </p>
+	 * 
+	 * @param direction
+	 *            Direction of the message (as defined by
+	 *            <code>TranscriptRecord</code>)
+	 * @param message
+	 *            Message or notification of a Join, Part or Quit
+	 * @return <code>true</code> if the message comes from another instance
+	 */
+	public boolean isPeerMessage(byte direction, Message message) {
+		if (direction != TranscriptRecord.IRC_TO_SLACK) {
+			return false;
+		}
+		String nick = message.getUsername();
+		if (nick == null) {
+			// notifications look like "<nick> has joined IRC."
+			int i = message.getContent().indexOf(' ');
+			nick = i > 0 ? message.getContent().substring(0, i) : null;
+		}
+		return nick != null && peerNicks.contains(nick.toLowerCase());
+	}
+
+	/**
+	 * <p>
+	 * Copies the acknowledgements read from the lease file.
+	 * </p>
+	 */
+	private void takeOverAcks() {
+		synchronized (ackLock) {
+			for (int i = 0; i < DIRECTIONS; i++) {
+				int[] fingerprints = recordAckFingerprints[i];
+				ackCounts[i] = fingerprints.length;
+				System.arraycopy(fingerprints, 0, ackFingerprints[i], 0, fingerprints.length);
+			}
+			acksDirty = false;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Updates the nicks of this instance, removes instances which stopped
+	 * renewing their nicks and collects the nicks of the other instances.
+	 * </p>
+	 * 
+	 * @param now
+	 *            Current time in milliseconds since the epoch
+	 */
+	private void updateMembers(long now) {
+		Set<String> nicks = new HashSet<String>();
+		Iterator<Member> iterator = members.iterator();
+		while (iterator.hasNext()) {
+			Member member = iterator.next();
+			if (member.id.equals(instanceId) || now - member.lastSeen > MEMBER_EXPIRY * failoverTime) {
+				iterator.remove();
+			} else {
+				for (String nick : member.nicks) {
+					nicks.add(nick.toLowerCase());
+				}
+			}
+		}
+		peerNicks = nicks;
+
+		Member self = new Member();
+		self.id = instanceId;
+		self.lastSeen = now;
+		self.nicks = ircNicks != null ? ircNicks.getIrcNicks() : Collections.<String> emptyList();
+		if (self.nicks.size() > MAX_NICKS) {
+			self.nicks = self.nicks.subList(0, MAX_NICKS);
+		}
+		members.add(self);
+	}
+
+	/**
+	 * <p>
+	 * Reads the lease record. An empty or unknown lease file is read as
+	 * record without owner.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the lease file can't be read
+	 */
+	private void readRecord() throws IOException {
+		recordOwner = null;
+		recordExpiry = 0;
+		for (int i = 0; i < DIRECTIONS; i++) {
+			recordAckFingerprints[i] = new int[0];
+		}
+		members.clear();
+
+		record.clear();
+		while (record.hasRemaining() && channel.read(record, record.position()) > 0) {
+			// read until the record is complete or the file ends
+		}
+		record.flip();
+		if (record.remaining() == 0) {
+			return;
+		}
+		try {
+			if (record.getInt() != MAGIC) {
+				l.warn("Overwriting lease file of unknown format");
+				return;
+			}
+			recordExpiry = record.getLong();
+			recordOwner = getString();
+			for (int i = 0; i < DIRECTIONS; i++) {
+				int[] fingerprints = new int[Math.max(0, Math.min(record.get(), ACK_WINDOW))];
+				for (int j = 0; j < fingerprints.length; j++) {
+					fingerprints[j] = record.getInt();
+				}
+				recordAckFingerprints[i] = fingerprints;
+			}
+			int memberCount = record.getShort();
+			for (int i = 0; i < memberCount; i++) {
+				Member member = new Member();
+				member.id = getString();
+				member.lastSeen = record.getLong();
+				int nickCount = record.getShort();
+				member.nicks = new ArrayList<String>(nickCount);
+				for (int j = 0; j < nickCount; j++) {
+					member.nicks.add(getString());
+				}
+				members.add(member);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Invalid lease file");
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes the lease record with the owner and acknowledgements of this
+	 * instance or with those read from the lease file.
+	 * </p>
+	 * 
+	 * @param owner
+	 *            Whether this instance holds the lease
+	 * @throws IOException
+	 *             If the lease file can't be written
+	 */
+	private void writeRecord(boolean owner) throws IOException {
+		record.clear();
+		try {
+			record.putInt(MAGIC);
+			if (owner) {
+				record.putLong(expiry);
+				putString(instanceId);
+				synchronized (ackLock) {
+					for (byte i = 0; i < DIRECTIONS; i++) {
+						putAck(getAckFingerprints(i));
+					}
+					acksDirty = false;
+				}
+			} else {
+				record.putLong(recordExpiry);
+				putString(recordOwner);
+				for (int i = 0; i < DIRECTIONS; i++) {
+					putAck(recordAckFingerprints[i]);
+				}
+			}
+			record.putShort((short) members.size());
+			for (Member member : members) {
+				putString(member.id);
+				record.putLong(member.lastSeen);
+				record.putShort((short) member.nicks.size());
+				for (String nick : member.nicks) {
+					putString(nick);
+				}
+			}
+		} catch (BufferOverflowException e) {
+			throw new IOException("Lease record exceeds " + RECORD_SIZE + " bytes");
+		}
+		record.flip();
+		while (record.hasRemaining()) {
+			channel.write(record, record.position());
+		}
+		channel.truncate(record.limit());
+	}
+
+	/**
+	 * <p>
+	 * Puts the acknowledgement of a direction into the buffer.
+	 * </p>
+	 * 
+	 * @param fingerprints
+	 *            Fingerprints of the last relayed messages
+	 */
+	private void putAck(int[] fingerprints) {
+		record.put((byte) fingerprints.length);
+		for (int fingerprint : fingerprints) {
+			record.putInt(fingerprint);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Puts the given string with its length into the buffer.
+	 * </p>
+	 * 
+	 * @param s
+	 *            String (may be <code>null</code>)
+	 */
+	private void putString(String s) {
+		if (s == null) {
+			record.putShort((short) -1);
+		} else {
+			byte[] bytes = s.getBytes(UTF_8);
+			record.putShort((short) bytes.length);
+			record.put(bytes);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gets a string with its length from the buffer.
+	 * </p>
+	 * 
+	 * @return String (may be <code>null</code>)
+	 */
+	private String getString() {
+		int length = record.getShort();
+		if (length < 0) {
+			return null;
+		}
+		String s = new String(record.array(), record.position(), length, UTF_8);
+		record.position(record.position() + length);
+		return s;
+	}
+
+	/**
+	 * <p>
+	 * Writes the last acknowledgements and releases the lease, so another
+	 * instance can take over immediately.
+	 * </p>
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (scheduler != null) {
+			// no interrupt, it would close the channel of a running renewal
+			scheduler.shutdown();
+		}
+		try {
+			if (isActive()) {
+				FileLock lock = channel.lock();
+				try {
+					readRecord();
+					if (instanceId.equals(recordOwner)) {
+						expiry = 0;
+						writeRecord(true);
+						channel.force(false);
+					}
+				} finally {
+					lock.release();
+				}
+			}
+			active = false;
+			file.close();
+		} catch (IOException e) {
+			l.error("Error releasing the lease", e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Adds the given property change listener to the lease.
+	 * </p>
+	 * 
+	 * @param listener
+	 *            Listener for the property "active"
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * <p>
+	 * Instance of the bridge with the IRC nicks it uses.
+	 * </p>
+	 */
+	private static class Member {
+
+		/**
+		 * ID of the instance
+		 */
+		private String id;
+
+		/**
+		 * Time the instance last wrote its nicks in milliseconds since the
+		 * epoch
+		 */
+		private long lastSeen;
+
+		/**
+		 * IRC nicks of the instance
+		 */
+		private List<String> nicks;
+
+	}
+
+}
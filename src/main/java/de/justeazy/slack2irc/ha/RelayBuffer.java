@@ -0,0 +1,144 @@
+package de.justeazy.slack2irc.ha;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Ring of the recently received messages of both directions. An instance
+ * taking over the lease relays the messages received after the last messages
+ * relayed by the previous holder.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class RelayBuffer {
+
+	/**
+	 * Directions of the messages
+	 */
+	private byte[] directions;
+
+	/**
+	 * Messages
+	 */
+	private Message[] messages;
+
+	/**
+	 * Fingerprints of the messages
+	 */
+	private int[] fingerprints;
+
+	/**
+	 * Number of messages added so far
+	 */
+	private long count = 0;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>RelayBuffer</code>.
+	 * </p>
+	 * 
+	 * @param capacity
+	 *            Maximum number of messages
+	 */
+	public RelayBuffer(int capacity) {
+		directions = new byte[capacity];
+		messages = new Message[capacity];
+		fingerprints = new int[capacity];
+	}
+
+	/**
+	 * <p>
+	 * Adds the given received message. The oldest message is dropped if the
+	 * buffer is full.
+	 * </p>
+	 * 
+	 * @param direction
+	 *            Direction of the message (as defined by
+	 *            <code>TranscriptRecord</code>)
+	 * @param message
+	 *            Message
+	 */
+	public synchronized void add(byte direction, Message message) {
+		int slot = (int) (count++ % messages.length);
+		directions[slot] = direction;
+		messages[slot] = message;
+		fingerprints[slot] = LeaseManager.fingerprint(message);
+	}
+
+	/**
+	 * <p>
+	 * Returns the messages of the given direction received after the given
+	 * acknowledged messages, leaving out the messages of other instances. The
+	 * acknowledged messages are the newest sequence of messages with their
+	 * fingerprints. Messages with an ID (from Slack) are found by it, messages
+	 * without one (from IRC) by the fingerprints of the last few relayed
+	 * messages. If they are not buffered, all buffered messages are returned,
+	 * since relaying a message twice is better than losing it (the receive
+	 * times can't be compared with the clock of another host).
+	 * </p>
+	 * 
+	 * @param direction
+	 *            Direction (as defined by <code>TranscriptRecord</code>)
+	 * @param ackFingerprints
+	 *            Fingerprints of the last acknowledged messages from the oldest
+	 *            to the newest
+	 * @param lease
+	 *            Lease telling the messages of other instances
+	 * @return Messages in the order they were received
+	 */
+	public synchronized List<Message> since(byte direction, int[] ackFingerprints, LeaseManager lease) {
+		// positions of the messages to consider, in the order they were
+		// received
+		List<Integer> slots = new ArrayList<Integer>();
+		for (long i = Math.max(0, count - messages.length); i < count; i++) {
+			int slot = (int) (i % messages.length);
+			if (directions[slot] == direction && !lease.isPeerMessage(direction, messages[slot])) {
+				slots.add(slot);
+			}
+		}
+
+		int start = 0;
+		if (ackFingerprints.length > 0) {
+			for (int end = slots.size() - 1; end >= ackFingerprints.length - 1; end--) {
+				if (matches(slots, end, ackFingerprints)) {
+					start = end + 1;
+					break;
+				}
+			}
+		}
+
+		List<Message> result = new ArrayList<Message>();
+		for (int i = start; i < slots.size(); i++) {
+			result.add(messages[slots.get(i)]);
+		}
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the messages at the given positions ending at the given
+	 * index have the given fingerprints.
+	 * </p>
+	 * 
+	 * @param slots
+	 *            Positions of the messages
+	 * @param end
+	 *            Index of the newest message
+	 * @param fingerprints
+	 *            Fingerprints from the oldest to the newest message
+	 * @return <code>true</code> if all fingerprints match
+	 */
+	private boolean matches(List<Integer> slots, int end, int[] fingerprints) {
+		for (int i = 0; i < fingerprints.length; i++) {
+			if (this.fingerprints[slots.get(end - fingerprints.length + 1 + i)] != fingerprints[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,194 @@
+package de.justeazy.slack2irc.irc;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * <p>
+ * Replaces Slack emojis (enclosed by colons) with their text-based
+ * replacements for IRC. The configured replacements are merged with the
+ * custom emojis of the Slack team into a single replacement table.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class EmojiReplacer {
+
+	/**
+	 * Maximum number of aliases followed to resolve a custom emoji
+	 */
+	private static final int MAX_ALIAS_DEPTH = 8;
+
+	/**
+	 * Configured replacements by emoji name (without colons)
+	 */
+	private Map<String, String> configuredReplacements = new HashMap<String, String>();
+
+	/**
+	 * Replacements by emoji name (configured and custom emojis)
+	 */
+	private volatile Map<String, String> replacements;
+
+	/**
+	 * Format of the replacement of a custom emoji (<code>%s</code> is replaced
+	 * by the name of the emoji)
+	 */
+	private String customEmojiFormat;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>EmojiReplacer</code> with the replacements
+	 * of the given properties file.
+	 * </p>
+	 * 
+	 * @param emojisFile
+	 *            Properties file with emoji names as keys and their
+	 *            replacements as values
+	 * @param customEmojiFormat
+	 *            Format of the replacement of a custom emoji (like
+	 *            <code>[%s]</code>)
+	 * @throws FileNotFoundException
+	 *             If the emojis file can't be found
+	 * @throws IOException
+	 *             If the emojis file can't be read
+	 */
+	public EmojiReplacer(String emojisFile, String customEmojiFormat) throws FileNotFoundException, IOException {
+		this(new FileInputStream(emojisFile), customEmojiFormat);
+	}
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>EmojiReplacer</code> with the replacements
+	 * read from the given stream (e.g., a resource of the classpath). The
+	 * stream is closed.
+	 * </p>
+	 * 
+	 * @param emojisStream
+	 *            Stream of a properties file (UTF-8) with emoji names as keys
+	 *            and their replacements as values
+	 * @param customEmojiFormat
+	 *            Format of the replacement of a custom emoji (like
+	 *            <code>[%s]</code>)
+	 * @throws IOException
+	 *             If the stream can't be read
+	 */
+	public EmojiReplacer(InputStream emojisStream, String customEmojiFormat) throws IOException {
+		this.customEmojiFormat = customEmojiFormat;
+		Properties emojis = new Properties();
+		try {
+			emojis.load(new InputStreamReader(emojisStream, "UTF-8"));
+		} finally {
+			emojisStream.close();
+		}
+		for (String key : emojis.stringPropertyNames()) {
+			configuredReplacements.put(key, emojis.getProperty(key));
+		}
+		replacements = configuredReplacements;
+	}
+
+	/**
+	 * <p>
+	 * Merges the given custom emojis of the Slack team into the replacement
+	 * table. Aliases are replaced like the emoji they refer to (following
+	 * chains of aliases up to a bounded depth), all other custom emojis are
+	 * replaced by their name in the custom emoji format. Configured
+	 * replacements take precedence. Aliases in a cycle are not replaced.
+	 * </p>
+	 * 
+	 * @param customEmojis
+	 *            Map of emoji names to their URLs (or
+	 *            <code>alias:&lt;name&gt;</code>)
+	 */
+	public void setCustomEmojis(Map<String, String> customEmojis) {
+		Map<String, String> mergedReplacements = new HashMap<String, String>();
+		for (String name : customEmojis.keySet()) {
+			String replacement = resolve(name, customEmojis);
+			if (replacement != null) {
+				mergedReplacements.put(name, replacement);
+			}
+		}
+		mergedReplacements.putAll(configuredReplacements);
+		replacements = mergedReplacements;
+	}
+
+	/**
+	 * <p>
+	 * Returns the replacement of the given custom emoji. Aliases are followed
+	 * to a configured replacement, to a custom emoji or to a standard emoji,
+	 * which is kept as it is.
+	 * </p>
+	 * 
+	 * @param name
+	 *            Name of the custom emoji
+	 * @param customEmojis
+	 *            Map of emoji names to their URLs (or
+	 *            <code>alias:&lt;name&gt;</code>)
+	 * @return Replacement or <code>null</code> if the alias chain is too long
+	 *         or a cycle
+	 */
+	private String resolve(String name, Map<String, String> customEmojis) {
+		String current = name;
+		for (int depth = 0; depth <= MAX_ALIAS_DEPTH; depth++) {
+			if (depth > 0 && configuredReplacements.containsKey(current)) {
+				return configuredReplacements.get(current);
+			}
+			if (!customEmojis.containsKey(current)) {
+				// a standard emoji Slack users and IRC users know by name
+				return ":" + current + ":";
+			}
+			String value = customEmojis.get(current);
+			if (value == null || !value.startsWith("alias:")) {
+				return String.format(customEmojiFormat, current);
+			}
+			current = value.substring("alias:".length());
+		}
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Replaces all known emojis of the given message with their defined
+	 * replacements. The message is scanned only once, so the cost does not
+	 * depend on the number of defined replacements.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Message to look for emojis
+	 * @return Message with replaced emojis
+	 */
+	public String replace(String message) {
+		Map<String, String> replacements = this.replacements;
+		int start = message.indexOf(':');
+		StringBuilder sb = null;
+		int copied = 0;
+		while (start >= 0) {
+			int end = message.indexOf(':', start + 1);
+			if (end < 0) {
+				break;
+			}
+			String replacement = replacements.get(message.substring(start + 1, end));
+			if (replacement != null) {
+				if (sb == null) {
+					sb = new StringBuilder(message.length());
+				}
+				sb.append(message, copied, start).append(replacement);
+				copied = end + 1;
+				start = message.indexOf(':', copied);
+			} else {
+				start = end;
+			}
+		}
+
+		if (sb == null) {
+			return message;
+		}
+		return sb.append(message, copied, message.length()).toString();
+	}
+
+}
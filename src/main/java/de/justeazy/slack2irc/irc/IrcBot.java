@@ -2,10 +2,10 @@ package de.justeazy.slack2irc.irc;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.logging.log4j.LogManager;
@@ -25,7 +25,7 @@ import de.justeazy.slack2irc.Message;
  * 
  * @author Henrik Peters
  */
-public class IrcBot extends PircBot implements Bot {
+public class IrcBot extends PircBot implements Bot, IrcNicks {
 
 	/**
 	 * Logging instance
@@ -38,9 +38,9 @@ public class IrcBot extends PircBot implements Bot {
 	private Properties properties;
 
 	/**
-	 * Properties to replace Slack emojis in IRC
+	 * Replacer of Slack emojis in IRC
 	 */
-	private Properties emojis;
+	private EmojiReplacer emojis;
 
 	/**
 	 * Support for property changes (listen for property "postedMessage" to get
@@ -65,17 +65,16 @@ public class IrcBot extends PircBot implements Bot {
 	 * 
 	 * @param properties
 	 *            Properties to configure the connection
-	 * @throws IOException
-	 * @throws FileNotFoundException
+	 * @param emojis
+	 *            Replacer of Slack emojis
 	 */
-	public IrcBot(Properties properties) throws FileNotFoundException, IOException {
+	public IrcBot(Properties properties, EmojiReplacer emojis) {
 		setProperties(properties);
-
-		// initialize emojis checker
-		emojis = new Properties();
-		emojis.load(new FileReader("src/main/resources/slackemojis.config"));
+		this.emojis = emojis;
 
 		this.setName(properties.getProperty("ircNick"));
+		// in high availability mode the nick may be taken by another instance
+		this.setAutoNickChange(properties.getProperty("haLeaseFile") != null);
 		this.setVerbose(Boolean.parseBoolean(properties.getProperty("ircVerbose")));
 	}
 
@@ -86,7 +85,7 @@ public class IrcBot extends PircBot implements Bot {
 	 * </p>
 	 */
 	public void onMessage(String channel, String sender, String login, String hostname, String message) {
-		Message oldPostedMessage = postedMessage != null ? postedMessage.clone() : null;
+		Message oldPostedMessage = postedMessage;
 		postedMessage = new Message(sender, message);
 		pcs.firePropertyChange("postedMessage", oldPostedMessage, postedMessage);
 	}
@@ -99,7 +98,7 @@ public class IrcBot extends PircBot implements Bot {
 	 */
 	public void onJoin(String channel, String sender, String login, String hostname) {
 		if (!sender.equals(this.getNick())) {
-			Message oldJoinPartQuitMessage = joinPartQuitMessage != null ? joinPartQuitMessage.clone() : null;
+			Message oldJoinPartQuitMessage = joinPartQuitMessage;
 			joinPartQuitMessage = new Message(null, sender + " has joined IRC.");
 			pcs.firePropertyChange("joinPartQuitMessage", oldJoinPartQuitMessage, joinPartQuitMessage);
 		}
@@ -113,7 +112,7 @@ public class IrcBot extends PircBot implements Bot {
 	 */
 	public void onPart(String channel, String sender, String login, String hostname) {
 		if (!sender.equals(this.getNick())) {
-			Message oldJoinPartQuitMessage = joinPartQuitMessage != null ? joinPartQuitMessage.clone() : null;
+			Message oldJoinPartQuitMessage = joinPartQuitMessage;
 			joinPartQuitMessage = new Message(null, sender + " has parted IRC.");
 			pcs.firePropertyChange("joinPartQuitMessage", oldJoinPartQuitMessage, joinPartQuitMessage);
 		}
@@ -127,11 +126,11 @@ public class IrcBot extends PircBot implements Bot {
 	 */
 	public void onQuit(String channel, String sender, String login, String hostname) {
 		if (!sender.equals(this.getNick())) {
-			l.trace("channel = " + channel);
-			l.trace("sender = " + sender);
-			l.trace("login = " + login);
-			l.trace("hostname = " + hostname);
-			Message oldJoinPartQuitMessage = joinPartQuitMessage != null ? joinPartQuitMessage.clone() : null;
+			l.trace("channel = {}", channel);
+			l.trace("sender = {}", sender);
+			l.trace("login = {}", login);
+			l.trace("hostname = {}", hostname);
+			Message oldJoinPartQuitMessage = joinPartQuitMessage;
 			joinPartQuitMessage = new Message(null, channel + " has quit IRC.");
 			pcs.firePropertyChange("joinPartQuitMessage", oldJoinPartQuitMessage, joinPartQuitMessage);
 		}
@@ -161,37 +160,19 @@ public class IrcBot extends PircBot implements Bot {
 	 * </p>
 	 */
 	public void sendMessage(Message message) {
-		String sendMessage = "";
+		StringBuilder sb = new StringBuilder(message.getContent().length() + 32);
 		if (message.getUsername() != null) {
-			sendMessage += "<" + message.getUsername() + "> ";
+			sb.append('<').append(message.getUsername()).append("> ");
 		}
-		sendMessage += message.getContent();
+		String sendMessage = sb.append(message.getContent()).toString();
 
 		// check for emojis to replace
-		sendMessage = checkEmojis(sendMessage);
+		sendMessage = emojis.replace(sendMessage);
 
-		l.trace("sendMessage = " + sendMessage);
+		l.trace("sendMessage = {}", sendMessage);
 		this.sendMessage(properties.getProperty("ircChannel"), sendMessage);
 	}
 
-	/**
-	 * <p>
-	 * Replaces all emojis from <code>emojis</code> with their defined
-	 * replacements.
-	 * </p>
-	 * 
-	 * @param message
-	 *            Message to look for emojis
-	 * @return Message with replaced emojis
-	 */
-	private String checkEmojis(String message) {
-		for (Object key : emojis.keySet()) {
-			message = message.replaceAll("\\x3A" + ((String) key) + "\\x3A", emojis.getProperty((String) key));
-		}
-
-		return message;
-	}
-
 	/**
 	 * <p>
 	 * Returns a sorted array of channel usernames.
@@ -210,6 +191,15 @@ public class IrcBot extends PircBot implements Bot {
 		return usernames;
 	}
 
+	/**
+	 * <p>
+	 * Returns the current nick of the bot.
+	 * </p>
+	 */
+	public List<String> getIrcNicks() {
+		return Collections.singletonList(this.getNick());
+	}
+
 	/**
 	 * <p>
 	 * Adds the given property change listener to the bot.
@@ -0,0 +1,445 @@
+package de.justeazy.slack2irc.irc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * Non-blocking connection to an IRC server served by an
+ * <code>IrcEventLoop</code>. Incoming lines are parsed in place from a reused
+ * read buffer and passed to the <code>IrcConnectionHandler</code>. Outgoing
+ * lines may be sent from any thread.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class IrcConnection {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(IrcConnection.class);
+
+	/**
+	 * Size of the read buffer (longer lines are discarded)
+	 */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * Maximum number of alternative nicks tried before the registration is
+	 * given up
+	 */
+	private static final int MAX_NICK_RETRIES = 5;
+
+	/**
+	 * Event loop serving the connection
+	 */
+	private IrcEventLoop eventLoop;
+
+	/**
+	 * Handler of the events of the connection
+	 */
+	private IrcConnectionHandler handler;
+
+	/**
+	 * IRC server to connect to
+	 */
+	private String server;
+
+	/**
+	 * Port of the IRC server
+	 */
+	private int port;
+
+	/**
+	 * Password of the IRC server (may be <code>null</code>)
+	 */
+	private String password;
+
+	/**
+	 * Current nick of the connection
+	 */
+	private volatile String nick;
+
+	/**
+	 * Channel of the connection
+	 */
+	private SocketChannel channel;
+
+	/**
+	 * Selection key of the channel
+	 */
+	private SelectionKey key;
+
+	/**
+	 * Reused buffer for incoming data
+	 */
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	/**
+	 * Number of bytes of the read buffer already scanned for line ends
+	 */
+	private int scanned = 0;
+
+	/**
+	 * Whether the rest of an overlong line is discarded up to the next line
+	 * end
+	 */
+	private boolean discarding = false;
+
+	/**
+	 * Number of alternative nicks tried so far
+	 */
+	private int nickRetries = 0;
+
+	/**
+	 * Reused view of the current incoming line
+	 */
+	private IrcLine line = new IrcLine();
+
+	/**
+	 * Outgoing lines not yet written to the channel
+	 */
+	private Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * Whether the server accepted the registration
+	 */
+	private volatile boolean registered = false;
+
+	/**
+	 * Whether the connection should be closed after all outgoing lines are
+	 * written
+	 */
+	private volatile boolean closeAfterWrite = false;
+
+	/**
+	 * Whether the connection is closed
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>IrcConnection</code>. The connection is
+	 * established by calling <code>connect()</code>.
+	 * </p>
+	 * 
+	 * @param eventLoop
+	 *            Event loop serving the connection
+	 * @param handler
+	 *            Handler of the events of the connection
+	 * @param server
+	 *            IRC server to connect to
+	 * @param port
+	 *            Port of the IRC server
+	 * @param password
+	 *            Password of the IRC server (may be <code>null</code> or
+	 *            empty)
+	 * @param nick
+	 *            Nick to register
+	 */
+	public IrcConnection(IrcEventLoop eventLoop, IrcConnectionHandler handler, String server, int port,
+			String password, String nick) {
+		this.eventLoop = eventLoop;
+		this.handler = handler;
+		this.server = server;
+		this.port = port;
+		this.password = password;
+		this.nick = nick;
+	}
+
+	/**
+	 * <p>
+	 * Connects to the IRC server and registers the nick.
+	 * </p>
+	 */
+	public void connect() {
+		eventLoop.register(this);
+	}
+
+	/**
+	 * <p>
+	 * Sends a raw line (without CR LF) to the server. CR and LF within the
+	 * line are replaced by spaces, so relayed content can't inject further
+	 * commands.
+	 * </p>
+	 * 
+	 * @param rawLine
+	 *            Line to send
+	 */
+	public void sendRaw(String rawLine) {
+		if (closed) {
+			return;
+		}
+		if (rawLine.indexOf('\r') >= 0 || rawLine.indexOf('\n') >= 0) {
+			rawLine = rawLine.replace('\r', ' ').replace('\n', ' ');
+		}
+		writeQueue.add(ByteBuffer.wrap((rawLine + "\r\n").getBytes(IrcLine.UTF_8)));
+		eventLoop.execute(new Runnable() {
+			public void run() {
+				enableWrite();
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Sends a message to the given target (channel or nick).
+	 * </p>
+	 * 
+	 * @param target
+	 *            Channel or nick
+	 * @param message
+	 *            Message to send
+	 */
+	public void sendMessage(String target, String message) {
+		sendRaw("PRIVMSG " + target + " :" + message);
+	}
+
+	/**
+	 * <p>
+	 * Sends <code>QUIT</code> with the given reason and closes the connection
+	 * as soon as all outgoing lines are written.
+	 * </p>
+	 * 
+	 * @param reason
+	 *            Quit reason
+	 */
+	public void quit(String reason) {
+		sendRaw("QUIT :" + reason);
+		closeAfterWrite = true;
+	}
+
+	/**
+	 * <p>
+	 * Opens the channel and registers it with the given selector. Called by the
+	 * thread of the event loop.
+	 * </p>
+	 * 
+	 * @param selector
+	 *            Selector of the event loop
+	 * @throws IOException
+	 *             If the channel can't be opened
+	 */
+	void open(Selector selector) throws IOException {
+		channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+		if (channel.connect(new InetSocketAddress(server, port))) {
+			handleConnect();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Finishes the connect and sends the registration.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the connect failed
+	 */
+	void handleConnect() throws IOException {
+		if (!channel.finishConnect()) {
+			return;
+		}
+		l.debug("Connected to " + server + ":" + port + " as " + nick);
+		key.interestOps(SelectionKey.OP_READ);
+		if (password != null && password.length() > 0) {
+			sendRaw("PASS " + password);
+		}
+		sendRaw("NICK " + nick);
+		sendRaw("USER " + nick + " 8 * :" + nick);
+	}
+
+	/**
+	 * <p>
+	 * Reads from the channel and dispatches every complete line.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the channel can't be read
+	 */
+	void handleRead() throws IOException {
+		if (channel.read(readBuffer) < 0) {
+			close();
+			return;
+		}
+
+		byte[] buffer = readBuffer.array();
+		int limit = readBuffer.position();
+		int lineStart = 0;
+		for (int i = scanned; i < limit; i++) {
+			if (buffer[i] == '\n') {
+				int lineEnd = i > lineStart && buffer[i - 1] == '\r' ? i - 1 : i;
+				if (discarding) {
+					// end of an overlong line whose start has been discarded
+					discarding = false;
+				} else if (lineEnd > lineStart && line.parse(buffer, lineStart, lineEnd)) {
+					dispatch();
+				}
+				if (closed) {
+					return;
+				}
+				lineStart = i + 1;
+			}
+		}
+
+		if (lineStart > 0) {
+			System.arraycopy(buffer, lineStart, buffer, 0, limit - lineStart);
+			readBuffer.position(limit - lineStart);
+		} else if (!readBuffer.hasRemaining()) {
+			l.warn("Discarding line longer than " + READ_BUFFER_SIZE + " bytes from " + server);
+			readBuffer.clear();
+			discarding = true;
+		}
+		scanned = readBuffer.position();
+	}
+
+	/**
+	 * <p>
+	 * Handles the lines concerning the connection itself and passes all other
+	 * lines to the handler.
+	 * </p>
+	 */
+	private void dispatch() {
+		if (line.isCommand("PING")) {
+			// answer a PING without parameter with the name of the server
+			sendRaw("PONG :" + (line.getParamCount() > 0 ? line.getParam(0) : server));
+		} else if (line.isCommand("001")) {
+			// the server may have shortened the nick
+			if (line.getParamCount() > 0) {
+				nick = line.getParam(0);
+			}
+			registered = true;
+			handler.onRegistered(this);
+		} else if (!registered && (line.isCommand("433") || line.isCommand("432"))) {
+			if (++nickRetries > MAX_NICK_RETRIES) {
+				// e.g., the server truncates the nick or rejects it for good
+				l.error("Giving up registration on " + server + " after " + MAX_NICK_RETRIES + " nicks");
+				close();
+				return;
+			}
+			nick = nick + "_";
+			l.debug("Nick in use or erroneous, trying " + nick);
+			sendRaw("NICK " + nick);
+		} else {
+			if (line.isCommand("NICK") && nick.equalsIgnoreCase(line.getNick())) {
+				nick = line.getParam(0);
+			}
+			handler.onLine(this, line);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes the queued outgoing lines to the channel.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the channel can't be written
+	 */
+	void handleWrite() throws IOException {
+		ByteBuffer buffer;
+		while ((buffer = writeQueue.peek()) != null) {
+			channel.write(buffer);
+			if (buffer.hasRemaining()) {
+				return;
+			}
+			writeQueue.poll();
+		}
+		key.interestOps(SelectionKey.OP_READ);
+		if (closeAfterWrite) {
+			close();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Registers interest in writing if the channel is connected.
+	 * </p>
+	 */
+	private void enableWrite() {
+		if (key != null && key.isValid() && channel.isConnected()) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Closes the connection and notifies the handler.
+	 * </p>
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		registered = false;
+		if (key != null) {
+			key.cancel();
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		l.debug("Disconnected from " + server + " as " + nick);
+		handler.onDisconnect(this);
+	}
+
+	/**
+	 * <p>
+	 * Returns whether the server accepted the registration.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the connection is registered
+	 */
+	public boolean isRegistered() {
+		return registered;
+	}
+
+	/**
+	 * <p>
+	 * Returns whether the connection is closed.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the connection is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * <p>
+	 * Returns the current nick of the connection.
+	 * </p>
+	 * 
+	 * @return Nick
+	 */
+	public String getNick() {
+		return nick;
+	}
+
+	/**
+	 * <p>
+	 * Returns the IRC server of the connection.
+	 * </p>
+	 * 
+	 * @return IRC server
+	 */
+	public String getServer() {
+		return server;
+	}
+
+}
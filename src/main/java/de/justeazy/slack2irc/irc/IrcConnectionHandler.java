@@ -0,0 +1,48 @@
+package de.justeazy.slack2irc.irc;
+
+/**
+ * <p>
+ * Interface for the handlers of the events of an <code>IrcConnection</code>.
+ * All methods are called by the thread of the <code>IrcEventLoop</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public interface IrcConnectionHandler {
+
+	/**
+	 * <p>
+	 * Called as soon as the server accepted the registration of the
+	 * connection.
+	 * </p>
+	 * 
+	 * @param connection
+	 *            Registered connection
+	 */
+	public void onRegistered(IrcConnection connection);
+
+	/**
+	 * <p>
+	 * Called for every line received from the server which is not handled by
+	 * the connection itself (like <code>PING</code>). The line is only valid
+	 * during the call.
+	 * </p>
+	 * 
+	 * @param connection
+	 *            Connection which received the line
+	 * @param line
+	 *            Received line
+	 */
+	public void onLine(IrcConnection connection, IrcLine line);
+
+	/**
+	 * <p>
+	 * Called after the connection has been closed.
+	 * </p>
+	 * 
+	 * @param connection
+	 *            Closed connection
+	 */
+	public void onDisconnect(IrcConnection connection);
+
+}
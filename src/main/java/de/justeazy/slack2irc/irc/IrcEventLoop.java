@@ -0,0 +1,182 @@
+package de.justeazy.slack2irc.irc;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * Single-threaded event loop serving any number of non-blocking
+ * <code>IrcConnection</code>s with one <code>Selector</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class IrcEventLoop implements Runnable {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(IrcEventLoop.class);
+
+	/**
+	 * Selector of all connections of the loop
+	 */
+	private Selector selector;
+
+	/**
+	 * Tasks to run in the thread of the loop
+	 */
+	private Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Whether the loop is running
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>IrcEventLoop</code>.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the selector can't be opened
+	 */
+	public IrcEventLoop() throws IOException {
+		selector = Selector.open();
+	}
+
+	/**
+	 * <p>
+	 * Runs the given task in the thread of the loop.
+	 * </p>
+	 * 
+	 * @param task
+	 *            Task to run
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * <p>
+	 * Opens the given connection and registers it with the selector of the
+	 * loop.
+	 * </p>
+	 * 
+	 * @param connection
+	 *            Connection to open
+	 */
+	void register(final IrcConnection connection) {
+		execute(new Runnable() {
+			public void run() {
+				try {
+					connection.open(selector);
+				} catch (IOException e) {
+					l.error("Error connecting to " + connection.getServer(), e);
+					close(connection);
+				} catch (RuntimeException e) {
+					// e.g., an unresolved address
+					l.error("Error connecting to " + connection.getServer(), e);
+					close(connection);
+				}
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Stops the loop and closes all of its connections.
+	 * </p>
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * <p>
+	 * Runs the loop until <code>shutdown()</code> is called.
+	 * </p>
+	 */
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				l.error("Error selecting IRC connections", e);
+				break;
+			}
+
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// a failing task must not stop the loop of all connections
+					l.error("Error running task of the IRC event loop", e);
+				}
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				IrcConnection connection = (IrcConnection) key.attachment();
+				try {
+					if (key.isValid() && key.isConnectable()) {
+						connection.handleConnect();
+					}
+					if (key.isValid() && key.isReadable()) {
+						connection.handleRead();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.handleWrite();
+					}
+				} catch (IOException e) {
+					l.error("Error on connection to " + connection.getServer(), e);
+					close(connection);
+				} catch (RuntimeException e) {
+					// e.g., thrown by a listener of the handler, only this
+					// connection is closed
+					l.error("Error on connection to " + connection.getServer(), e);
+					close(connection);
+				}
+			}
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			close((IrcConnection) key.attachment());
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Closes the given connection without letting an exception of its handler
+	 * stop the loop.
+	 * </p>
+	 * 
+	 * @param connection
+	 *            Connection to close
+	 */
+	private void close(IrcConnection connection) {
+		try {
+			connection.close();
+		} catch (RuntimeException e) {
+			l.error("Error closing connection to " + connection.getServer(), e);
+		}
+	}
+
+}
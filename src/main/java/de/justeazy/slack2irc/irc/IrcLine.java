@@ -0,0 +1,287 @@
+package de.justeazy.slack2irc.irc;
+
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * Reusable view of a single raw IRC line. The line is parsed in place by
+ * recording the offsets of prefix, command and parameters in the read buffer;
+ * strings are only created when a part of the line is requested.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class IrcLine {
+
+	/**
+	 * Charset of the IRC connection
+	 */
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Maximum number of parameters of an IRC line (see RFC 1459)
+	 */
+	private static final int MAX_PARAMS = 15;
+
+	/**
+	 * Buffer holding the current line
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Offset of the prefix (<code>-1</code> if the line has no prefix)
+	 */
+	private int prefixStart = -1;
+
+	/**
+	 * End of the prefix (exclusive)
+	 */
+	private int prefixEnd;
+
+	/**
+	 * Offset of the command
+	 */
+	private int commandStart;
+
+	/**
+	 * End of the command (exclusive)
+	 */
+	private int commandEnd;
+
+	/**
+	 * Offsets of the parameters
+	 */
+	private int[] paramStarts = new int[MAX_PARAMS];
+
+	/**
+	 * Ends of the parameters (exclusive)
+	 */
+	private int[] paramEnds = new int[MAX_PARAMS];
+
+	/**
+	 * Number of parameters
+	 */
+	private int paramCount;
+
+	/**
+	 * <p>
+	 * Parses the line between <code>start</code> and <code>end</code> of the
+	 * given buffer (without trailing CR LF).
+	 * </p>
+	 * 
+	 * @param buffer
+	 *            Buffer holding the line
+	 * @param start
+	 *            Offset of the line
+	 * @param end
+	 *            End of the line (exclusive)
+	 * @return <code>true</code> if the line contains a command
+	 */
+	boolean parse(byte[] buffer, int start, int end) {
+		this.buffer = buffer;
+		prefixStart = -1;
+		paramCount = 0;
+
+		int i = start;
+		if (i < end && buffer[i] == ':') {
+			prefixStart = ++i;
+			while (i < end && buffer[i] != ' ') {
+				i++;
+			}
+			prefixEnd = i;
+		}
+
+		i = skipSpaces(i, end);
+		commandStart = i;
+		while (i < end && buffer[i] != ' ') {
+			i++;
+		}
+		commandEnd = i;
+		if (commandStart == commandEnd) {
+			return false;
+		}
+
+		while (paramCount < MAX_PARAMS) {
+			i = skipSpaces(i, end);
+			if (i >= end) {
+				break;
+			}
+			if (buffer[i] == ':') {
+				paramStarts[paramCount] = i + 1;
+				paramEnds[paramCount++] = end;
+				break;
+			}
+			paramStarts[paramCount] = i;
+			while (i < end && buffer[i] != ' ') {
+				i++;
+			}
+			paramEnds[paramCount++] = i;
+		}
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Skips the spaces beginning at the given offset.
+	 * </p>
+	 * 
+	 * @param i
+	 *            Offset
+	 * @param end
+	 *            End of the line (exclusive)
+	 * @return Offset of the next non-space character
+	 */
+	private int skipSpaces(int i, int end) {
+		while (i < end && buffer[i] == ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * <p>
+	 * Compares the command of the line with the given (ASCII) command without
+	 * creating a string.
+	 * </p>
+	 * 
+	 * @param command
+	 *            Command like <code>PRIVMSG</code> or numeric reply like
+	 *            <code>001</code>
+	 * @return <code>true</code> if the line has the given command
+	 */
+	public boolean isCommand(String command) {
+		if (commandEnd - commandStart != command.length()) {
+			return false;
+		}
+		for (int i = 0; i < command.length(); i++) {
+			if ((buffer[commandStart + i] & 0xDF) != (command.charAt(i) & 0xDF)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Returns the command of the line.
+	 * </p>
+	 * 
+	 * @return Command
+	 */
+	public String getCommand() {
+		return new String(buffer, commandStart, commandEnd - commandStart, UTF_8);
+	}
+
+	/**
+	 * <p>
+	 * Returns the nick of the prefix (<code>nick!login@hostname</code>).
+	 * </p>
+	 * 
+	 * @return Nick or <code>null</code> if the line has no prefix
+	 */
+	public String getNick() {
+		if (prefixStart < 0) {
+			return null;
+		}
+		int i = prefixStart;
+		while (i < prefixEnd && buffer[i] != '!' && buffer[i] != '@') {
+			i++;
+		}
+		return new String(buffer, prefixStart, i - prefixStart, UTF_8);
+	}
+
+	/**
+	 * <p>
+	 * Returns the login of the prefix (<code>nick!login@hostname</code>).
+	 * </p>
+	 * 
+	 * @return Login or an empty string if the prefix contains no login
+	 */
+	public String getLogin() {
+		int start = indexOfPrefix('!');
+		if (start < 0) {
+			return "";
+		}
+		int end = indexOfPrefix('@');
+		if (end < start) {
+			end = prefixEnd;
+		}
+		return new String(buffer, start + 1, end - start - 1, UTF_8);
+	}
+
+	/**
+	 * <p>
+	 * Returns the hostname of the prefix (<code>nick!login@hostname</code>).
+	 * </p>
+	 * 
+	 * @return Hostname or an empty string if the prefix contains no hostname
+	 */
+	public String getHostname() {
+		int start = indexOfPrefix('@');
+		if (start < 0) {
+			return "";
+		}
+		return new String(buffer, start + 1, prefixEnd - start - 1, UTF_8);
+	}
+
+	/**
+	 * <p>
+	 * Returns the offset of the given character in the prefix.
+	 * </p>
+	 * 
+	 * @param c
+	 *            Character
+	 * @return Offset or <code>-1</code> if the character is not part of the
+	 *         prefix
+	 */
+	private int indexOfPrefix(char c) {
+		if (prefixStart >= 0) {
+			for (int i = prefixStart; i < prefixEnd; i++) {
+				if (buffer[i] == c) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of parameters.
+	 * </p>
+	 * 
+	 * @return Number of parameters
+	 */
+	public int getParamCount() {
+		return paramCount;
+	}
+
+	/**
+	 * <p>
+	 * Returns the parameter with the given index.
+	 * </p>
+	 * 
+	 * @param index
+	 *            Index of the parameter
+	 * @return Parameter or <code>null</code> if there is no such parameter
+	 */
+	public String getParam(int index) {
+		if (index >= paramCount) {
+			return null;
+		}
+		return new String(buffer, paramStarts[index], paramEnds[index] - paramStarts[index], UTF_8);
+	}
+
+	/**
+	 * <p>
+	 * Returns the whole line.
+	 * </p>
+	 */
+	@Override
+	public String toString() {
+		int start = prefixStart >= 0 ? prefixStart - 1 : commandStart;
+		int end = paramCount > 0 ? paramEnds[paramCount - 1] : commandEnd;
+		return new String(buffer, start, end - start, UTF_8);
+	}
+
+}
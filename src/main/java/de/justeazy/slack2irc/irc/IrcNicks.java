@@ -0,0 +1,25 @@
+package de.justeazy.slack2irc.irc;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Interface for the IRC bots which can tell the nicks they currently use, so
+ * other instances of the bridge can ignore their messages.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public interface IrcNicks {
+
+	/**
+	 * <p>
+	 * Returns the nicks currently used by the bot (and its puppets) in IRC.
+	 * May be called by any thread.
+	 * </p>
+	 * 
+	 * @return Nicks
+	 */
+	public List<String> getIrcNicks();
+
+}
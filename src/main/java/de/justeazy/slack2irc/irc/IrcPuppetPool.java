@@ -0,0 +1,525 @@
+package de.justeazy.slack2irc.irc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Pool of IRC connections ("puppets") with one nick per Slack user. All
+ * puppets are multiplexed on a single <code>IrcEventLoop</code>. Puppets are
+ * created on the first message of a Slack user and disconnected after being
+ * idle for the configured time. The number of concurrent puppets and the rate
+ * of new connections are limited.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class IrcPuppetPool {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(IrcPuppetPool.class);
+
+	/**
+	 * Maximum number of messages queued for a puppet which is not yet in the
+	 * channel
+	 */
+	private static final int MAX_PENDING_MESSAGES = 20;
+
+	/**
+	 * Time in milliseconds a nick is still known as puppet after its
+	 * connection has been closed (until the server's QUIT has been seen)
+	 */
+	private static final long NICK_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Properties to configure the connections to the IRC network
+	 */
+	private Properties properties;
+
+	/**
+	 * Event loop serving all puppets
+	 */
+	private IrcEventLoop eventLoop;
+
+	/**
+	 * Executor for the idle check
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Receiver of the messages which can't be sent by a puppet
+	 */
+	private PuppetFallback fallback;
+
+	/**
+	 * Puppets by Slack username in order of their last activity
+	 */
+	private LinkedHashMap<String, Puppet> puppets = new LinkedHashMap<String, Puppet>(16, 0.75f, true);
+
+	/**
+	 * Nicks of the registered puppets (lower case) with the time until they
+	 * are known as puppets (<code>Long.MAX_VALUE</code> while connected)
+	 */
+	private Map<String, Long> puppetNicks = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Maximum number of concurrent puppets
+	 */
+	private int maxConnections;
+
+	/**
+	 * Time in milliseconds after which an idle puppet is disconnected
+	 */
+	private long idleTimeout;
+
+	/**
+	 * Minimum time in milliseconds between two new connections
+	 */
+	private long connectInterval;
+
+	/**
+	 * Time of the last new connection
+	 */
+	private long lastConnect = 0;
+
+	/**
+	 * Suffix appended to the nick of every puppet
+	 */
+	private String nickSuffix;
+
+	/**
+	 * Maximum length of a nick (updated by the <code>NICKLEN</code> the
+	 * server announces)
+	 */
+	private volatile int nickLength;
+
+	/**
+	 * Replacer of Slack emojis in IRC
+	 */
+	private EmojiReplacer emojis;
+
+	/**
+	 * <p>
+	 * Interface for the receiver of messages a puppet can't send.
+	 * </p>
+	 */
+	public interface PuppetFallback {
+
+		/**
+		 * <p>
+		 * Sends the given message without a puppet.
+		 * </p>
+		 * 
+		 * @param message
+		 *            Message to send
+		 */
+		public void sendFallbackMessage(Message message);
+
+	}
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>IrcPuppetPool</code> with the given
+	 * properties.
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties to configure the connections
+	 * @param emojis
+	 *            Replacer of Slack emojis
+	 * @param fallback
+	 *            Receiver of the messages which can't be sent by a puppet
+	 * @throws IOException
+	 *             If the event loop can't be created
+	 */
+	public IrcPuppetPool(Properties properties, EmojiReplacer emojis, PuppetFallback fallback) throws IOException {
+		this.properties = properties;
+		this.emojis = emojis;
+		this.fallback = fallback;
+		this.eventLoop = new IrcEventLoop();
+
+		maxConnections = Integer.parseInt(properties.getProperty("ircPuppetMaxConnections", "50"));
+		idleTimeout = TimeUnit.MINUTES.toMillis(Long.parseLong(properties.getProperty("ircPuppetIdleTimeout", "30")));
+		connectInterval = TimeUnit.MINUTES.toMillis(1)
+				/ Math.max(1, Integer.parseInt(properties.getProperty("ircPuppetConnectsPerMinute", "10")));
+		nickSuffix = properties.getProperty("ircPuppetNickSuffix", "[s]");
+		nickLength = Integer.parseInt(properties.getProperty("ircPuppetNickLength", "30"));
+	}
+
+	/**
+	 * <p>
+	 * Starts the event loop of the puppets and the idle check.
+	 * </p>
+	 */
+	public void start() {
+		Thread eventLoopThread = new Thread(eventLoop, "irc-puppets");
+		eventLoopThread.setDaemon(true);
+		eventLoopThread.start();
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "irc-puppets-idle");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000, idleTimeout / 4);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				disconnectIdlePuppets();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * <p>
+	 * Sends the given message by the puppet of its username. The puppet is
+	 * created if necessary.
+	 * </p>
+	 * 
+	 * @param message
+	 *            Message with the Slack username
+	 * @return <code>false</code> if no puppet is available (because of the
+	 *         connection limit or the connect rate)
+	 */
+	public synchronized boolean send(Message message) {
+		Puppet puppet = puppets.get(message.getUsername());
+		if (puppet == null) {
+			puppet = createPuppet(message.getUsername());
+			if (puppet == null) {
+				return false;
+			}
+		}
+		puppet.send(message.getContent());
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Creates and connects a new puppet for the given Slack username. If the
+	 * connection limit is reached, the least recently active puppet is
+	 * disconnected.
+	 * </p>
+	 * 
+	 * @param username
+	 *            Slack username
+	 * @return New puppet or <code>null</code> if the connect rate is exceeded
+	 */
+	private Puppet createPuppet(String username) {
+		long now = System.currentTimeMillis();
+		if (now - lastConnect < connectInterval) {
+			l.debug("Connect rate exceeded, no puppet for " + username);
+			return null;
+		}
+		if (puppets.size() >= maxConnections) {
+			Iterator<Puppet> eldest = puppets.values().iterator();
+			Puppet evicted = eldest.next();
+			eldest.remove();
+			evicted.quit("Too many puppets");
+		}
+		lastConnect = now;
+
+		Puppet puppet = new Puppet(username);
+		puppets.put(username, puppet);
+		puppet.connection.connect();
+		return puppet;
+	}
+
+	/**
+	 * <p>
+	 * Disconnects all puppets which have been idle longer than the configured
+	 * time.
+	 * </p>
+	 */
+	private synchronized void disconnectIdlePuppets() {
+		long now = System.currentTimeMillis();
+		Iterator<Long> knownUntil = puppetNicks.values().iterator();
+		while (knownUntil.hasNext()) {
+			if (knownUntil.next() < now) {
+				knownUntil.remove();
+			}
+		}
+
+		Iterator<Puppet> iterator = puppets.values().iterator();
+		while (iterator.hasNext()) {
+			Puppet puppet = iterator.next();
+			// the map is ordered by last activity, so all others are active
+			if (now - puppet.lastActive < idleTimeout) {
+				break;
+			}
+			iterator.remove();
+			puppet.quit("Idle");
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the given nick belongs to a puppet.
+	 * </p>
+	 * 
+	 * @param nick
+	 *            IRC nick
+	 * @return <code>true</code> if the nick belongs to a puppet
+	 */
+	public boolean isPuppetNick(String nick) {
+		if (nick == null) {
+			return false;
+		}
+		Long knownUntil = puppetNicks.get(nick.toLowerCase());
+		return knownUntil != null && knownUntil >= System.currentTimeMillis();
+	}
+
+	/**
+	 * <p>
+	 * Returns the nicks of the current puppets and of the puppets which
+	 * disconnected recently.
+	 * </p>
+	 * 
+	 * @return Lower case nicks
+	 */
+	public List<String> getPuppetNicks() {
+		long now = System.currentTimeMillis();
+		List<String> nicks = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : puppetNicks.entrySet()) {
+			if (entry.getValue() >= now) {
+				nicks.add(entry.getKey());
+			}
+		}
+		return nicks;
+	}
+
+	/**
+	 * <p>
+	 * Forgets the nick of a disconnected puppet as soon as its QUIT has been
+	 * seen in the channel.
+	 * </p>
+	 * 
+	 * @param nick
+	 *            IRC nick
+	 */
+	public void puppetQuit(String nick) {
+		String lowerCaseNick = nick.toLowerCase();
+		Long knownUntil = puppetNicks.get(lowerCaseNick);
+		if (knownUntil != null && knownUntil != Long.MAX_VALUE) {
+			puppetNicks.remove(lowerCaseNick, knownUntil);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of current puppets.
+	 * </p>
+	 * 
+	 * @return Number of puppets
+	 */
+	public synchronized int size() {
+		return puppets.size();
+	}
+
+	/**
+	 * <p>
+	 * Builds a valid IRC nick for the given Slack username. The username is
+	 * shortened if the nick would exceed the maximum length of the server.
+	 * </p>
+	 * 
+	 * @param username
+	 *            Slack username
+	 * @return IRC nick
+	 */
+	String toNick(String username) {
+		StringBuilder nick = new StringBuilder(username.length() + nickSuffix.length());
+		for (int i = 0; i < username.length(); i++) {
+			char c = username.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || "[]\\`_^{|}".indexOf(c) >= 0
+					|| (nick.length() > 0 && ((c >= '0' && c <= '9') || c == '-'))) {
+				nick.append(c);
+			} else if (nick.length() > 0) {
+				nick.append('_');
+			}
+		}
+		if (nick.length() == 0) {
+			nick.append("slack");
+		}
+		nick.setLength(Math.max(1, Math.min(nick.length(), nickLength - nickSuffix.length())));
+		return nick.append(nickSuffix).toString();
+	}
+
+	/**
+	 * <p>
+	 * Single IRC connection of a Slack user.
+	 * </p>
+	 */
+	private class Puppet implements IrcConnectionHandler {
+
+		/**
+		 * Slack username of the puppet
+		 */
+		private String username;
+
+		/**
+		 * Connection of the puppet
+		 */
+		private IrcConnection connection;
+
+		/**
+		 * Whether the puppet has joined the channel
+		 */
+		private volatile boolean joined = false;
+
+		/**
+		 * Messages to send as soon as the puppet has joined the channel
+		 */
+		private List<String> pendingMessages = new ArrayList<String>();
+
+		/**
+		 * Time of the last message of the puppet
+		 */
+		private long lastActive = System.currentTimeMillis();
+
+		/**
+		 * <p>
+		 * Creates a puppet for the given Slack username.
+		 * </p>
+		 * 
+		 * @param username
+		 *            Slack username
+		 */
+		private Puppet(String username) {
+			this.username = username;
+			connection = new IrcConnection(eventLoop, this, properties.getProperty("ircServer"),
+					Integer.parseInt(properties.getProperty("ircPort")), properties.getProperty("ircPassword"),
+					toNick(username));
+		}
+
+		/**
+		 * <p>
+		 * Sends the given content to the channel or queues it until the puppet
+		 * has joined.
+		 * </p>
+		 * 
+		 * @param content
+		 *            Content to send
+		 */
+		private void send(String content) {
+			lastActive = System.currentTimeMillis();
+			synchronized (pendingMessages) {
+				if (connection.isClosed()) {
+					fallback.sendFallbackMessage(new Message(username, content));
+					return;
+				} else if (!joined) {
+					if (pendingMessages.size() < MAX_PENDING_MESSAGES) {
+						pendingMessages.add(content);
+					} else {
+						fallback.sendFallbackMessage(new Message(username, content));
+					}
+					return;
+				}
+			}
+			connection.sendMessage(properties.getProperty("ircChannel"), emojis.replace(content));
+		}
+
+		/**
+		 * <p>
+		 * Disconnects the puppet in the thread of the event loop, which owns
+		 * the state of the connection.
+		 * </p>
+		 * 
+		 * @param reason
+		 *            Quit reason
+		 */
+		private void quit(final String reason) {
+			eventLoop.execute(new Runnable() {
+				public void run() {
+					if (connection.isRegistered()) {
+						connection.quit(reason);
+					} else {
+						connection.close();
+					}
+				}
+			});
+		}
+
+		/**
+		 * <p>
+		 * Joins the configured channel.
+		 * </p>
+		 */
+		public void onRegistered(IrcConnection connection) {
+			puppetNicks.put(connection.getNick().toLowerCase(), Long.MAX_VALUE);
+			connection.sendRaw("JOIN " + properties.getProperty("ircChannel"));
+		}
+
+		/**
+		 * <p>
+		 * Sends the pending messages as soon as the puppet has joined and
+		 * takes over the maximum nick length announced by the server.
+		 * </p>
+		 */
+		public void onLine(IrcConnection connection, IrcLine line) {
+			if (line.isCommand("005")) {
+				for (int i = 1; i < line.getParamCount(); i++) {
+					String token = line.getParam(i);
+					if (token.startsWith("NICKLEN=")) {
+						try {
+							nickLength = Integer.parseInt(token.substring("NICKLEN=".length()));
+						} catch (NumberFormatException e) {
+							l.warn("Invalid " + token + " from " + connection.getServer());
+						}
+					}
+				}
+			}
+			if (!joined && line.isCommand("JOIN") && connection.getNick().equals(line.getNick())) {
+				synchronized (pendingMessages) {
+					for (String content : pendingMessages) {
+						connection.sendMessage(properties.getProperty("ircChannel"), emojis.replace(content));
+					}
+					pendingMessages.clear();
+					joined = true;
+				}
+			}
+		}
+
+		/**
+		 * <p>
+		 * Removes the puppet from the pool and sends undelivered messages by
+		 * the fallback. The nick is still known as puppet until the server's
+		 * QUIT reached the channel.
+		 * </p>
+		 */
+		public void onDisconnect(IrcConnection connection) {
+			puppetNicks.replace(connection.getNick().toLowerCase(), System.currentTimeMillis() + NICK_GRACE_PERIOD);
+			synchronized (IrcPuppetPool.this) {
+				if (puppets.get(username) == this) {
+					puppets.remove(username);
+				}
+			}
+			List<String> undelivered;
+			synchronized (pendingMessages) {
+				undelivered = new ArrayList<String>(pendingMessages);
+				pendingMessages.clear();
+			}
+			for (String content : undelivered) {
+				fallback.sendFallbackMessage(new Message(username, content));
+			}
+		}
+
+	}
+
+}
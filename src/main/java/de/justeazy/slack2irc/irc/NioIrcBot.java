@@ -0,0 +1,417 @@
+package de.justeazy.slack2irc.irc;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.justeazy.slack2irc.Bot;
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Bot to connect to an IRC network using a non-blocking
+ * <code>IrcConnection</code> instead of the two threads per connection of
+ * PircBot. Fires the same properties as <code>IrcBot</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class NioIrcBot implements Bot, IrcConnectionHandler, IrcNicks {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(NioIrcBot.class);
+
+	/**
+	 * Properties to configure the connection to the IRC network
+	 */
+	private Properties properties;
+
+	/**
+	 * Replacer of Slack emojis in IRC
+	 */
+	private EmojiReplacer emojis;
+
+	/**
+	 * Support for property changes (listen for property "postedMessage" to get
+	 * information about new messages in that network)
+	 */
+	private PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+
+	/**
+	 * Last posted message
+	 */
+	private Message postedMessage = null;
+
+	/**
+	 * Last notification about Joins, Parts or Quits
+	 */
+	private Message joinPartQuitMessage = null;
+
+	/**
+	 * Event loop serving the connection
+	 */
+	private IrcEventLoop eventLoop;
+
+	/**
+	 * Whether the event loop was created by the bot and has to be run by it
+	 */
+	private boolean ownEventLoop;
+
+	/**
+	 * Connection to the IRC network
+	 */
+	private IrcConnection connection;
+
+	/**
+	 * Nicks of the users in the configured channel
+	 */
+	private Set<String> channelUsers = new HashSet<String>();
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>NioIrcBot</code> with the given properties
+	 * and its own event loop.
+	 * </P>
+	 * 
+	 * @param properties
+	 *            Properties to configure the connection
+	 * @param emojis
+	 *            Replacer of Slack emojis
+	 * @throws IOException
+	 *             If the event loop can't be created
+	 */
+	public NioIrcBot(Properties properties, EmojiReplacer emojis) throws IOException {
+		this(properties, emojis, new IrcEventLoop());
+		ownEventLoop = true;
+	}
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>NioIrcBot</code> with the given properties
+	 * served by the given (shared) event loop.
+	 * </P>
+	 * 
+	 * @param properties
+	 *            Properties to configure the connection
+	 * @param emojis
+	 *            Replacer of Slack emojis
+	 * @param eventLoop
+	 *            Event loop serving the connection
+	 */
+	public NioIrcBot(Properties properties, EmojiReplacer emojis, IrcEventLoop eventLoop) {
+		setProperties(properties);
+		this.emojis = emojis;
+		this.eventLoop = eventLoop;
+
+		connection = new IrcConnection(eventLoop, this, properties.getProperty("ircServer"),
+				Integer.parseInt(properties.getProperty("ircPort")), properties.getProperty("ircPassword"),
+				properties.getProperty("ircNick"));
+	}
+
+	/**
+	 * <p>
+	 * Joins the configured channel as soon as the connection is registered.
+	 * </p>
+	 */
+	public void onRegistered(IrcConnection connection) {
+		connection.sendRaw("JOIN " + properties.getProperty("ircChannel"));
+	}
+
+	/**
+	 * <p>
+	 * Dispatches the lines of the IRC network to <code>onMessage</code>,
+	 * <code>onJoin</code>, <code>onPart</code> and <code>onQuit</code> and
+	 * keeps track of the users in the configured channel.
+	 * </p>
+	 */
+	public void onLine(IrcConnection connection, IrcLine line) {
+		if (line.isCommand("PRIVMSG")) {
+			String channel = line.getParam(0);
+			String message = line.getParam(1);
+			// CTCP requests (like ACTION) are no messages
+			if (isConfiguredChannel(channel) && message != null && !message.startsWith("\u0001")) {
+				onMessage(channel, line.getNick(), line.getLogin(), line.getHostname(), message);
+			}
+		} else if (line.isCommand("JOIN")) {
+			String channel = line.getParam(0);
+			if (isConfiguredChannel(channel)) {
+				String sender = line.getNick();
+				addChannelUser(sender);
+				onJoin(channel, sender, line.getLogin(), line.getHostname());
+			}
+		} else if (line.isCommand("PART")) {
+			String channel = line.getParam(0);
+			if (isConfiguredChannel(channel)) {
+				String sender = line.getNick();
+				removeChannelUser(sender);
+				onPart(channel, sender, line.getLogin(), line.getHostname());
+			}
+		} else if (line.isCommand("QUIT")) {
+			String sourceNick = line.getNick();
+			removeChannelUser(sourceNick);
+			onQuit(sourceNick, line.getLogin(), line.getHostname(), line.getParam(0));
+		} else if (line.isCommand("KICK")) {
+			if (isConfiguredChannel(line.getParam(0))) {
+				removeChannelUser(line.getParam(1));
+			}
+		} else if (line.isCommand("NICK")) {
+			synchronized (channelUsers) {
+				if (channelUsers.remove(line.getNick())) {
+					channelUsers.add(line.getParam(0));
+				}
+			}
+		} else if (line.isCommand("353")) {
+			// RPL_NAMREPLY: <nick> <type> <channel> :<names>
+			if (isConfiguredChannel(line.getParam(2))) {
+				for (String name : line.getParam(3).split(" ")) {
+					int i = 0;
+					while (i < name.length() && "@+%&~".indexOf(name.charAt(i)) >= 0) {
+						i++;
+					}
+					if (i < name.length()) {
+						addChannelUser(name.substring(i));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Logs the lost connection.
+	 * </p>
+	 */
+	public void onDisconnect(IrcConnection connection) {
+		l.debug("Disconnected from " + connection.getServer());
+		synchronized (channelUsers) {
+			channelUsers.clear();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Handles new messages in the IRC network. New messages are fired for the
+	 * property "postedMessage".
+	 * </p>
+	 */
+	public void onMessage(String channel, String sender, String login, String hostname, String message) {
+		Message oldPostedMessage = postedMessage;
+		postedMessage = new Message(sender, message);
+		pcs.firePropertyChange("postedMessage", oldPostedMessage, postedMessage);
+	}
+
+	/**
+	 * <p>
+	 * Handles Joins in the IRC network. Notifications are fired for the
+	 * property "joinPartQuitMessage".
+	 * </p>
+	 */
+	public void onJoin(String channel, String sender, String login, String hostname) {
+		if (!sender.equals(getNick())) {
+			Message oldJoinPartQuitMessage = joinPartQuitMessage;
+			joinPartQuitMessage = new Message(null, sender + " has joined IRC.");
+			pcs.firePropertyChange("joinPartQuitMessage", oldJoinPartQuitMessage, joinPartQuitMessage);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Handles Parts in the IRC network. Notifications are fired for the
+	 * property "joinPartQuitMessage".
+	 * </p>
+	 */
+	public void onPart(String channel, String sender, String login, String hostname) {
+		if (!sender.equals(getNick())) {
+			Message oldJoinPartQuitMessage = joinPartQuitMessage;
+			joinPartQuitMessage = new Message(null, sender + " has parted IRC.");
+			pcs.firePropertyChange("joinPartQuitMessage", oldJoinPartQuitMessage, joinPartQuitMessage);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Handles Quits in the IRC network. Notifications are fired for the
+	 * property "joinPartQuitMessage".
+	 * </p>
+	 */
+	public void onQuit(String sourceNick, String sourceLogin, String sourceHostname, String reason) {
+		if (!sourceNick.equals(getNick())) {
+			Message oldJoinPartQuitMessage = joinPartQuitMessage;
+			joinPartQuitMessage = new Message(null, sourceNick + " has quit IRC.");
+			pcs.firePropertyChange("joinPartQuitMessage", oldJoinPartQuitMessage, joinPartQuitMessage);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the last posted message.
+	 * </p>
+	 */
+	public Message getPostedMessage() {
+		return this.postedMessage;
+	}
+
+	/**
+	 * <p>
+	 * Returns the last notification about Joins, Parts and Quits.
+	 * </p>
+	 */
+	public Message getJoinPartQuitMessage() {
+		return this.joinPartQuitMessage;
+	}
+
+	/**
+	 * <p>
+	 * Sends a message to the configured channel in the IRC network.
+	 * </p>
+	 */
+	public void sendMessage(Message message) {
+		StringBuilder sb = new StringBuilder(message.getContent().length() + 32);
+		if (message.getUsername() != null) {
+			sb.append('<').append(message.getUsername()).append("> ");
+		}
+		String sendMessage = sb.append(message.getContent()).toString();
+
+		// check for emojis to replace
+		sendMessage = emojis.replace(sendMessage);
+
+		l.trace("sendMessage = {}", sendMessage);
+		connection.sendMessage(properties.getProperty("ircChannel"), sendMessage);
+	}
+
+	/**
+	 * <p>
+	 * Returns a sorted array of channel usernames.
+	 * </p>
+	 */
+	public String[] getChannelUsers() {
+		String[] usernames;
+		synchronized (channelUsers) {
+			usernames = channelUsers.toArray(new String[channelUsers.size()]);
+		}
+		Arrays.sort(usernames);
+		return usernames;
+	}
+
+	/**
+	 * <p>
+	 * Adds the given nick to the users of the configured channel.
+	 * </p>
+	 * 
+	 * @param nick
+	 *            Nick of the user
+	 */
+	private void addChannelUser(String nick) {
+		if (!nick.equals(getNick())) {
+			synchronized (channelUsers) {
+				channelUsers.add(nick);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Removes the given nick from the users of the configured channel.
+	 * </p>
+	 * 
+	 * @param nick
+	 *            Nick of the user
+	 */
+	private void removeChannelUser(String nick) {
+		synchronized (channelUsers) {
+			channelUsers.remove(nick);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the given channel is the configured channel.
+	 * </p>
+	 * 
+	 * @param channel
+	 *            Channel
+	 * @return <code>true</code> if it is the configured channel
+	 */
+	private boolean isConfiguredChannel(String channel) {
+		return properties.getProperty("ircChannel").equalsIgnoreCase(channel);
+	}
+
+	/**
+	 * <p>
+	 * Returns the current nick of the bot.
+	 * </p>
+	 * 
+	 * @return Nick
+	 */
+	public String getNick() {
+		return connection.getNick();
+	}
+
+	/**
+	 * <p>
+	 * Returns the current nick of the bot.
+	 * </p>
+	 */
+	public List<String> getIrcNicks() {
+		return Collections.singletonList(getNick());
+	}
+
+	/**
+	 * <p>
+	 * Adds the given property change listener to the bot.
+	 * </p>
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * <p>
+	 * Starts the bot by connecting it to the configured network. After the
+	 * connection to the network is established, the bot automatically joins the
+	 * configured channel. If the bot has its own event loop, the loop is run in
+	 * the calling thread.
+	 * </p>
+	 */
+	public void run() {
+		connection.connect();
+		if (ownEventLoop) {
+			eventLoop.run();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the specified properties.
+	 * </p>
+	 * 
+	 * @return Properties
+	 */
+	public Properties getProperties() {
+		return properties;
+	}
+
+	/**
+	 * <p>
+	 * Sets the properties to connect to the network.
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties
+	 */
+	public void setProperties(Properties properties) {
+		this.properties = properties;
+	}
+
+}
@@ -0,0 +1,172 @@
+package de.justeazy.slack2irc.irc;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.justeazy.slack2irc.Bot;
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Bot wrapping another IRC bot to send the messages of every Slack user by an
+ * own IRC connection (puppet) of an <code>IrcPuppetPool</code>. Messages
+ * without username or without an available puppet are sent by the wrapped bot.
+ * Messages, Joins, Parts and Quits of the puppets are not fired.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class PuppetIrcBot implements Bot, IrcNicks, PropertyChangeListener, IrcPuppetPool.PuppetFallback {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(PuppetIrcBot.class);
+
+	/**
+	 * Wrapped IRC bot
+	 */
+	private Bot bot;
+
+	/**
+	 * Pool of the puppets
+	 */
+	private IrcPuppetPool puppetPool;
+
+	/**
+	 * Support for property changes (listen for property "postedMessage" to get
+	 * information about new messages in that network)
+	 */
+	private PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>PuppetIrcBot</code> wrapping the given bot.
+	 * </p>
+	 * 
+	 * @param bot
+	 *            IRC bot to wrap
+	 * @param properties
+	 *            Properties to configure the connections of the puppets
+	 * @param emojis
+	 *            Replacer of Slack emojis
+	 * @throws IOException
+	 *             If the puppet pool can't be created
+	 */
+	public PuppetIrcBot(Bot bot, Properties properties, EmojiReplacer emojis) throws IOException {
+		this.bot = bot;
+		this.puppetPool = new IrcPuppetPool(properties, emojis, this);
+		bot.addPropertyChangeListener(this);
+	}
+
+	/**
+	 * <p>
+	 * Sends the message by the puppet of its username or by the wrapped bot.
+	 * </p>
+	 */
+	public void sendMessage(Message message) {
+		if (message.getUsername() == null || !puppetPool.send(message)) {
+			bot.sendMessage(message);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Sends a message a puppet could not send by the wrapped bot.
+	 * </p>
+	 */
+	public void sendFallbackMessage(Message message) {
+		l.debug("Sending message of " + message.getUsername() + " without puppet");
+		bot.sendMessage(message);
+	}
+
+	/**
+	 * <p>
+	 * Fires the properties of the wrapped bot unless they concern a puppet.
+	 * </p>
+	 */
+	public void propertyChange(PropertyChangeEvent evt) {
+		Message message = (Message) evt.getNewValue();
+		if (evt.getPropertyName().equals("postedMessage")) {
+			if (puppetPool.isPuppetNick(message.getUsername())) {
+				return;
+			}
+		} else if (evt.getPropertyName().equals("joinPartQuitMessage")) {
+			// notifications look like "<nick> has joined IRC."
+			int i = message.getContent().indexOf(' ');
+			if (i > 0 && puppetPool.isPuppetNick(message.getContent().substring(0, i))) {
+				if (message.getContent().endsWith(" has quit IRC.")) {
+					puppetPool.puppetQuit(message.getContent().substring(0, i));
+				}
+				return;
+			}
+		}
+		pcs.firePropertyChange(evt.getPropertyName(), evt.getOldValue(), evt.getNewValue());
+	}
+
+	/**
+	 * <p>
+	 * Returns the last posted message of the wrapped bot.
+	 * </p>
+	 */
+	public Message getPostedMessage() {
+		return bot.getPostedMessage();
+	}
+
+	/**
+	 * <p>
+	 * Returns a sorted array of channel usernames without the puppets.
+	 * </p>
+	 */
+	public String[] getChannelUsers() {
+		List<String> usernames = new ArrayList<String>();
+		for (String username : bot.getChannelUsers()) {
+			if (!puppetPool.isPuppetNick(username)) {
+				usernames.add(username);
+			}
+		}
+		return usernames.toArray(new String[usernames.size()]);
+	}
+
+	/**
+	 * <p>
+	 * Returns the nicks of the wrapped bot and of the puppets.
+	 * </p>
+	 */
+	public List<String> getIrcNicks() {
+		List<String> nicks = new ArrayList<String>();
+		if (bot instanceof IrcNicks) {
+			nicks.addAll(((IrcNicks) bot).getIrcNicks());
+		}
+		nicks.addAll(puppetPool.getPuppetNicks());
+		return nicks;
+	}
+
+	/**
+	 * <p>
+	 * Adds the given property change listener to the bot.
+	 * </p>
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * <p>
+	 * Starts the puppet pool and the wrapped bot.
+	 * </p>
+	 */
+	public void run() {
+		puppetPool.start();
+		bot.run();
+	}
+
+}
@@ -0,0 +1,225 @@
+package de.justeazy.slack2irc.slack;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.ullink.slack.simpleslackapi.SlackSession;
+
+/**
+ * <p>
+ * Cache of the custom emojis of the Slack team. The emojis are fetched in the
+ * background on a schedule and persisted to a snapshot file, so they are
+ * available right after a restart. Changes are fired for the property
+ * "customEmojis" with a map of emoji names to their URLs (or
+ * <code>alias:&lt;name&gt;</code>).
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class EmojiCache {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(EmojiCache.class);
+
+	/**
+	 * Session of the connection to the Slack network
+	 */
+	private SlackSession slackSession;
+
+	/**
+	 * Snapshot file of the emojis
+	 */
+	private File snapshotFile;
+
+	/**
+	 * Interval between two refreshes in minutes
+	 */
+	private long refreshInterval;
+
+	/**
+	 * Support for property changes (listen for property "customEmojis" to get
+	 * the current custom emojis)
+	 */
+	private PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+
+	/**
+	 * Current custom emojis
+	 */
+	private volatile Map<String, String> emojis = Collections.emptyMap();
+
+	/**
+	 * Executor of the refreshes
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>EmojiCache</code> and loads the snapshot
+	 * file if it exists.
+	 * </p>
+	 * 
+	 * @param slackSession
+	 *            Session of the connection to the Slack network
+	 * @param properties
+	 *            Properties to configure the cache
+	 */
+	public EmojiCache(SlackSession slackSession, Properties properties) {
+		this.slackSession = slackSession;
+		this.snapshotFile = new File(properties.getProperty("slackEmojiCacheFile", "slackemojis.cache"));
+		this.refreshInterval = Long.parseLong(properties.getProperty("slackEmojiRefreshInterval", "60"));
+		loadSnapshot();
+	}
+
+	/**
+	 * <p>
+	 * Fires the emojis of the snapshot and starts the scheduled refreshes.
+	 * </p>
+	 */
+	public void start() {
+		if (!emojis.isEmpty()) {
+			pcs.firePropertyChange("customEmojis", null, emojis);
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "slack-emojis");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				// an exception would cancel all further refreshes
+				try {
+					refresh();
+				} catch (RuntimeException e) {
+					l.error("Error refreshing custom emojis", e);
+				}
+			}
+		}, 0, refreshInterval, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * <p>
+	 * Fetches the custom emojis from Slack, persists them and fires the
+	 * property "customEmojis" if they changed.
+	 * </p>
+	 */
+	private void refresh() {
+		Map<String, String> fetchedEmojis;
+		try {
+			fetchedEmojis = slackSession.listEmoji().getReply().getEmojis();
+		} catch (RuntimeException e) {
+			l.error("Error fetching custom emojis", e);
+			return;
+		}
+		if (fetchedEmojis == null || fetchedEmojis.equals(emojis)) {
+			return;
+		}
+
+		Map<String, String> oldEmojis = emojis;
+		emojis = Collections.unmodifiableMap(new HashMap<String, String>(fetchedEmojis));
+		l.debug("Fetched " + emojis.size() + " custom emojis");
+		storeSnapshot();
+		pcs.firePropertyChange("customEmojis", oldEmojis, emojis);
+	}
+
+	/**
+	 * <p>
+	 * Loads the emojis from the snapshot file.
+	 * </p>
+	 */
+	private void loadSnapshot() {
+		if (!snapshotFile.isFile()) {
+			return;
+		}
+		Properties snapshot = new Properties();
+		try {
+			FileReader reader = new FileReader(snapshotFile);
+			try {
+				snapshot.load(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			l.error("Error reading " + snapshotFile, e);
+			return;
+		}
+		Map<String, String> loadedEmojis = new HashMap<String, String>();
+		for (String name : snapshot.stringPropertyNames()) {
+			loadedEmojis.put(name, snapshot.getProperty(name));
+		}
+		emojis = Collections.unmodifiableMap(loadedEmojis);
+		l.debug("Loaded " + emojis.size() + " custom emojis from " + snapshotFile);
+	}
+
+	/**
+	 * <p>
+	 * Stores the emojis to the snapshot file. The file is replaced only after
+	 * it has been written completely.
+	 * </p>
+	 */
+	private void storeSnapshot() {
+		Properties snapshot = new Properties();
+		snapshot.putAll(emojis);
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+		try {
+			FileWriter writer = new FileWriter(tempFile);
+			try {
+				snapshot.store(writer, "Custom emojis of the Slack team");
+			} finally {
+				writer.close();
+			}
+			if (!tempFile.renameTo(snapshotFile)) {
+				snapshotFile.delete();
+				if (!tempFile.renameTo(snapshotFile)) {
+					l.error("Error replacing " + snapshotFile);
+				}
+			}
+		} catch (IOException e) {
+			l.error("Error writing " + snapshotFile, e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the current custom emojis.
+	 * </p>
+	 * 
+	 * @return Map of emoji names to their URLs (or
+	 *         <code>alias:&lt;name&gt;</code>)
+	 */
+	public Map<String, String> getEmojis() {
+		return emojis;
+	}
+
+	/**
+	 * <p>
+	 * Adds the given property change listener to the cache.
+	 * </p>
+	 * 
+	 * @param listener
+	 *            Listener for the property "customEmojis"
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(listener);
+	}
+
+}
@@ -0,0 +1,425 @@
+package de.justeazy.slack2irc.slack;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.ullink.slack.simpleslackapi.SlackUser;
+
+/**
+ * <p>
+ * Immutable prefix trie of the usernames of Slack users to rewrite names in
+ * messages into Slack mentions (<code>&lt;@U1234&gt;</code>). Names are
+ * matched case-insensitively at word boundaries and the longest name wins, so
+ * the cost of a message only depends on its length and the longest name, not
+ * on the number of users. A preceding <code>@</code> is part of the mention.
+ * URLs and code (enclosed by backticks) are left as they are.
+ * </p>
+ * <p>
+ * Adding or removing a name returns a new trie which shares all nodes but
+ * the path of the name with this trie, so a trie can be updated per member
+ * change while other threads keep using it.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class MentionTrie {
+
+	/**
+	 * <p>
+	 * Node of the trie.
+	 * </p>
+	 */
+	private static class Node {
+
+		/**
+		 * Sorted characters of the children
+		 */
+		private char[] labels = new char[0];
+
+		/**
+		 * Children in the order of their characters
+		 */
+		private Node[] children = new Node[0];
+
+		/**
+		 * ID of the user whose name ends at this node (<code>null</code> if no
+		 * name ends here)
+		 */
+		private String userId;
+
+		/**
+		 * <p>
+		 * Returns the child of the given character.
+		 * </p>
+		 * 
+		 * @param c
+		 *            Lower case character
+		 * @return Child or <code>null</code> if there is none
+		 */
+		private Node get(char c) {
+			int i = Arrays.binarySearch(labels, c);
+			return i >= 0 ? children[i] : null;
+		}
+
+		/**
+		 * <p>
+		 * Returns the child of the given character and adds it if there is
+		 * none.
+		 * </p>
+		 * 
+		 * @param c
+		 *            Lower case character
+		 * @return Child
+		 */
+		private Node getOrAdd(char c) {
+			int i = Arrays.binarySearch(labels, c);
+			if (i >= 0) {
+				return children[i];
+			}
+			return add(-i - 1, c, new Node());
+		}
+
+		/**
+		 * <p>
+		 * Returns a copy of the child of the given character which replaces
+		 * the child in this node (which must be a copy itself) and adds a new
+		 * child if there is none.
+		 * </p>
+		 * 
+		 * @param c
+		 *            Lower case character
+		 * @return Copied or added child
+		 */
+		private Node copyOrAdd(char c) {
+			int i = Arrays.binarySearch(labels, c);
+			if (i < 0) {
+				return add(-i - 1, c, new Node());
+			}
+			children[i] = children[i].copy();
+			return children[i];
+		}
+
+		/**
+		 * <p>
+		 * Inserts the given child at the given position.
+		 * </p>
+		 * 
+		 * @param i
+		 *            Position of the child
+		 * @param c
+		 *            Lower case character
+		 * @param child
+		 *            Child
+		 * @return Child
+		 */
+		private Node add(int i, char c, Node child) {
+			char[] newLabels = new char[labels.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, i);
+			System.arraycopy(children, 0, newChildren, 0, i);
+			newLabels[i] = c;
+			newChildren[i] = child;
+			System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+			System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+			labels = newLabels;
+			children = newChildren;
+			return child;
+		}
+
+		/**
+		 * <p>
+		 * Removes the child of the given character.
+		 * </p>
+		 * 
+		 * @param c
+		 *            Lower case character
+		 */
+		private void remove(char c) {
+			int i = Arrays.binarySearch(labels, c);
+			if (i < 0) {
+				return;
+			}
+			char[] newLabels = new char[labels.length - 1];
+			Node[] newChildren = new Node[children.length - 1];
+			System.arraycopy(labels, 0, newLabels, 0, i);
+			System.arraycopy(children, 0, newChildren, 0, i);
+			System.arraycopy(labels, i + 1, newLabels, i, labels.length - i - 1);
+			System.arraycopy(children, i + 1, newChildren, i, children.length - i - 1);
+			labels = newLabels;
+			children = newChildren;
+		}
+
+		/**
+		 * <p>
+		 * Returns a copy of this node to be modified. The labels are shared
+		 * as they are never changed in place.
+		 * </p>
+		 * 
+		 * @return Copy
+		 */
+		private Node copy() {
+			Node copy = new Node();
+			copy.labels = labels;
+			copy.children = children.clone();
+			copy.userId = userId;
+			return copy;
+		}
+
+	}
+
+	/**
+	 * Root of the trie
+	 */
+	private Node root = new Node();
+
+	/**
+	 * Number of names in the trie
+	 */
+	private int size = 0;
+
+	/**
+	 * Minimum length of a name
+	 */
+	private int minLength;
+
+	/**
+	 * <p>
+	 * Creates a copy of the given trie to be modified.
+	 * </p>
+	 * 
+	 * @param trie
+	 *            Trie to copy
+	 */
+	private MentionTrie(MentionTrie trie) {
+		root = trie.root.copy();
+		size = trie.size;
+		minLength = trie.minLength;
+	}
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>MentionTrie</code> with the usernames of
+	 * the given users.
+	 * </p>
+	 * 
+	 * @param users
+	 *            Users to mention
+	 * @param minLength
+	 *            Minimum length of a name (shorter names are too likely to
+	 *            match common words)
+	 */
+	public MentionTrie(Collection<SlackUser> users, int minLength) {
+		this.minLength = minLength;
+		for (SlackUser user : users) {
+			if (isMentionable(user)) {
+				Node node = root;
+				String name = user.getUserName();
+				for (int i = 0; i < name.length(); i++) {
+					node = node.getOrAdd(Character.toLowerCase(name.charAt(i)));
+				}
+				if (node.userId == null) {
+					size++;
+				}
+				node.userId = user.getId();
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a trie with the username of the given user added.
+	 * </p>
+	 * 
+	 * @param user
+	 *            User to mention
+	 * @return New trie or this trie if the name is too short
+	 */
+	public MentionTrie add(SlackUser user) {
+		if (!isMentionable(user)) {
+			return this;
+		}
+		MentionTrie trie = new MentionTrie(this);
+		Node node = trie.root;
+		String name = user.getUserName();
+		for (int i = 0; i < name.length(); i++) {
+			node = node.copyOrAdd(Character.toLowerCase(name.charAt(i)));
+		}
+		if (node.userId == null) {
+			trie.size++;
+		}
+		node.userId = user.getId();
+		return trie;
+	}
+
+	/**
+	 * <p>
+	 * Returns a trie without the given name of the given user.
+	 * </p>
+	 * 
+	 * @param name
+	 *            Username
+	 * @param userId
+	 *            ID of the user
+	 * @return New trie or this trie if the name doesn't belong to the user
+	 */
+	public MentionTrie remove(String name, String userId) {
+		Node node = root;
+		for (int i = 0; i < name.length() && node != null; i++) {
+			node = node.get(Character.toLowerCase(name.charAt(i)));
+		}
+		if (node == null || !userId.equals(node.userId)) {
+			return this;
+		}
+
+		MentionTrie trie = new MentionTrie(this);
+		Node[] path = new Node[name.length() + 1];
+		path[0] = trie.root;
+		for (int i = 0; i < name.length(); i++) {
+			path[i + 1] = path[i].copyOrAdd(Character.toLowerCase(name.charAt(i)));
+		}
+		path[name.length()].userId = null;
+		trie.size--;
+
+		// prune the nodes which lead to no other name
+		for (int i = name.length(); i > 0 && path[i].userId == null && path[i].children.length == 0; i--) {
+			path[i - 1].remove(Character.toLowerCase(name.charAt(i - 1)));
+		}
+		return trie;
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the username of the given user can be mentioned.
+	 * </p>
+	 * 
+	 * @param user
+	 *            User
+	 * @return <code>true</code> if the user has an ID and a name of the
+	 *         minimum length
+	 */
+	private boolean isMentionable(SlackUser user) {
+		return user.getUserName() != null && user.getUserName().length() >= minLength && user.getId() != null;
+	}
+
+	/**
+	 * <p>
+	 * Replaces the names in the given text with mentions of their users.
+	 * </p>
+	 * 
+	 * @param text
+	 *            Text to scan
+	 * @return Text with mentions (the given text if no name was found)
+	 */
+	public String replace(String text) {
+		if (size == 0) {
+			return text;
+		}
+		StringBuilder sb = null;
+		int copied = 0;
+		int length = text.length();
+		int i = 0;
+		while (i < length) {
+			int verbatimEnd = getVerbatimEnd(text, i);
+			if (verbatimEnd > i) {
+				i = verbatimEnd;
+				continue;
+			}
+			if (i > 0 && isWordChar(text.charAt(i - 1))) {
+				i++;
+				continue;
+			}
+
+			// walk the trie as far as possible and remember the longest name
+			// ending at a word boundary
+			Node node = root;
+			String userId = null;
+			int end = -1;
+			for (int j = i; j < length; j++) {
+				node = node.get(Character.toLowerCase(text.charAt(j)));
+				if (node == null) {
+					break;
+				}
+				if (node.userId != null && (j + 1 == length || !isWordChar(text.charAt(j + 1)))) {
+					userId = node.userId;
+					end = j + 1;
+				}
+			}
+
+			if (userId == null) {
+				i++;
+				continue;
+			}
+			if (sb == null) {
+				sb = new StringBuilder(length + 16);
+			}
+			int start = i > 0 && text.charAt(i - 1) == '@' ? i - 1 : i;
+			sb.append(text, copied, start).append("<@").append(userId).append('>');
+			copied = end;
+			i = end;
+		}
+		if (sb == null) {
+			return text;
+		}
+		return sb.append(text, copied, length).toString();
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of names in the trie.
+	 * </p>
+	 * 
+	 * @return Number of names
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * <p>
+	 * Returns the end of code or a URL starting at the given position, which
+	 * must not be rewritten.
+	 * </p>
+	 * 
+	 * @param text
+	 *            Text to scan
+	 * @param i
+	 *            Position in the text
+	 * @return End of the code or the URL (exclusive) or the given position if
+	 *         there is none
+	 */
+	private static int getVerbatimEnd(String text, int i) {
+		if (text.charAt(i) == '`') {
+			// code span or code block up to the closing backticks
+			String fence = text.startsWith("```", i) ? "```" : "`";
+			int end = text.indexOf(fence, i + fence.length());
+			return end >= 0 ? end + fence.length() : i + fence.length();
+		}
+		if (i > 0 && !Character.isWhitespace(text.charAt(i - 1))) {
+			return i;
+		}
+
+		// words containing "://" or starting with "www." are URLs
+		int end = i;
+		boolean url = text.regionMatches(true, i, "www.", 0, 4);
+		while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+			url |= text.startsWith("://", end);
+			end++;
+		}
+		return url ? end : i;
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the given character can be part of a word.
+	 * </p>
+	 * 
+	 * @param c
+	 *            Character
+	 * @return <code>true</code> if the character is a letter, a digit or an
+	 *         underscore
+	 */
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+}
@@ -5,9 +5,11 @@ import java.beans.PropertyChangeSupport;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,21 +19,23 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import com.ullink.slack.simpleslackapi.SlackChannel;
-import com.ullink.slack.simpleslackapi.SlackMessageHandle;
 import com.ullink.slack.simpleslackapi.SlackSession;
 import com.ullink.slack.simpleslackapi.SlackUser;
 import com.ullink.slack.simpleslackapi.events.SlackConnected;
 import com.ullink.slack.simpleslackapi.events.SlackDisconnected;
 import com.ullink.slack.simpleslackapi.events.SlackGroupJoined;
+import com.ullink.slack.simpleslackapi.events.SlackMessageDeleted;
 import com.ullink.slack.simpleslackapi.events.SlackMessagePosted;
+import com.ullink.slack.simpleslackapi.events.SlackMessageUpdated;
 import com.ullink.slack.simpleslackapi.events.SlackUserChange;
 import com.ullink.slack.simpleslackapi.impl.SlackSessionFactory;
 import com.ullink.slack.simpleslackapi.listeners.SlackConnectedListener;
 import com.ullink.slack.simpleslackapi.listeners.SlackDisconnectedListener;
 import com.ullink.slack.simpleslackapi.listeners.SlackGroupJoinedListener;
+import com.ullink.slack.simpleslackapi.listeners.SlackMessageDeletedListener;
 import com.ullink.slack.simpleslackapi.listeners.SlackMessagePostedListener;
+import com.ullink.slack.simpleslackapi.listeners.SlackMessageUpdatedListener;
 import com.ullink.slack.simpleslackapi.listeners.SlackUserChangeListener;
-import com.ullink.slack.simpleslackapi.replies.EmojiSlackReply;
 import com.ullink.slack.simpleslackapi.replies.GenericSlackReply;
 
 import de.justeazy.slack2irc.Bot;
@@ -51,6 +55,12 @@ public class SlackBot implements Bot {
 	 */
 	private static Logger l = LogManager.getLogger(SlackBot.class);
 
+	/**
+	 * Pattern of Slack's notifications about Joins and Parts
+	 */
+	private static final Pattern JOIN_PART_PATTERN = Pattern
+			.compile("\\x3C\\x40\\w+\\x7C(.*)\\x3E\\shas\\s(\\w+)\\sthe\\s(\\w+)");
+
 	/**
 	 * Properties to configure the connection to the Slack network
 	 */
@@ -77,6 +87,39 @@ public class SlackBot implements Bot {
 	 */
 	private Message joinPartQuitMessage = null;
 
+	/**
+	 * Recently relayed messages by their Slack timestamp (to relay edits and
+	 * deletions)
+	 */
+	private TimestampMap<Message> relayedMessages;
+
+	/**
+	 * Cache of the custom emojis of the Slack team
+	 */
+	private EmojiCache emojiCache;
+
+	/**
+	 * Trie of the names of the channel members to translate names into
+	 * mentions (built on connect and updated when members or users change)
+	 */
+	private volatile MentionTrie mentions;
+
+	/**
+	 * Names in the trie of mentions by the IDs of their users
+	 */
+	private Map<String, String> mentionNames = new HashMap<String, String>();
+
+	/**
+	 * Minimum length of names translated into mentions (<code>0</code> if
+	 * mentions are disabled)
+	 */
+	private int mentionMinLength;
+
+	/**
+	 * Handles of recent threads
+	 */
+	private SlackThreads threads;
+
 	/**
 	 * <p>
 	 * Creates an instance of <code>SlackBot</code> with the given properties.
@@ -86,38 +129,107 @@ public class SlackBot implements Bot {
 	 *            Properties to configure the connection
 	 */
 	public SlackBot(Properties properties) {
+		this(properties, SlackSessionFactory.createWebSocketSlackSession(properties.getProperty("slackAuthToken")));
+	}
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>SlackBot</code> with the given properties
+	 * and session (e.g., a session without network connection in tests).
+	 * </P>
+	 * 
+	 * @param properties
+	 *            Properties to configure the bot
+	 * @param slackSession
+	 *            Session of the connection to the Slack network
+	 */
+	public SlackBot(Properties properties, SlackSession slackSession) {
 		setProperties(properties);
 
-		slackSession = SlackSessionFactory.createWebSocketSlackSession(properties.getProperty("slackAuthToken"));
+		this.slackSession = slackSession;
+
+		relayedMessages = new TimestampMap<Message>(
+				Integer.parseInt(properties.getProperty("slackEditCacheSize", "1000")), TimeUnit.MINUTES
+						.toMillis(Long.parseLong(properties.getProperty("slackEditCacheMaxAge", "60"))));
+
+		emojiCache = new EmojiCache(slackSession, properties);
+
+		threads = new SlackThreads(properties);
+
+		if (Boolean.parseBoolean(properties.getProperty("slackMentions", "true"))) {
+			mentionMinLength = Math.max(1, Integer.parseInt(properties.getProperty("slackMentionMinLength", "3")));
+		}
+		mentions = new MentionTrie(Collections.<SlackUser> emptyList(), mentionMinLength);
 
 		// add listener to get new posted messages
 		slackSession.addMessagePostedListener(new SlackMessagePostedListener() {
 			public void onEvent(SlackMessagePosted event, SlackSession session) {
 				SlackUser messageSender = event.getSender();
-				l.trace("messageSender.userName = " + messageSender.getUserName());
+				l.trace("messageSender.userName = {}", messageSender.getUserName());
 				if (!messageSender.getUserName().equals(getUserName())) {
-					l.trace("event.messageContent = " + event.getMessageContent());
+					l.trace("event.messageContent = {}", event.getMessageContent());
 
 					// parse message in order to fire changing
 					// joinPartQuitMessage property or postedMessage property
-					Pattern p = Pattern.compile("\\x3C\\x40\\w+\\x7C(.*)\\x3E\\shas\\s(\\w+)\\sthe\\s(\\w+)");
-					Matcher m = p.matcher(event.getMessageContent());
+					Matcher m = JOIN_PART_PATTERN.matcher(event.getMessageContent());
 					if (m.find()) {
 						l.trace("Firing property \"joinPartQuitMessage\"");
-						Message oldJoinPartQuitMessage = joinPartQuitMessage != null ? joinPartQuitMessage.clone()
-								: null;
+						Message oldJoinPartQuitMessage = joinPartQuitMessage;
 						joinPartQuitMessage = new Message(null, m.group(1) + " has " + m.group(2) + " Slack.");
 						pcs.firePropertyChange("joinPartQuitMessage", oldJoinPartQuitMessage, joinPartQuitMessage);
+						updateMention(messageSender, "joined".equals(m.group(2)));
 					} else {
 						l.trace("Firing property \"postedMessage\"");
-						Message oldPostedMessage = postedMessage != null ? postedMessage.clone() : null;
-						postedMessage = new Message(messageSender.getUserName(), event.getMessageContent());
+						Message oldPostedMessage = postedMessage;
+						postedMessage = new Message(messageSender.getUserName(), event.getMessageContent(),
+								event.getTimeStamp());
+						relayedMessages.put(TimestampMap.toKey(event.getTimeStamp()), postedMessage);
+
+						// tag replies in threads with the handle of their
+						// thread
+						String threadTimestamp = SlackThreads.getThreadTimestamp(event);
+						long threadKey = TimestampMap.toKey(threadTimestamp);
+						if (threadKey >= 0) {
+							Message parent = relayedMessages.get(threadKey);
+							String tag = threads.tag(threadKey, parent != null ? parent.getContent() : null);
+							postedMessage = new Message(messageSender.getUserName(),
+									tag + " " + event.getMessageContent(), event.getTimeStamp());
+						}
 						pcs.firePropertyChange("postedMessage", oldPostedMessage, postedMessage);
 					}
 				}
 			}
 		});
 
+		// add listener to relay edits of recently relayed messages
+		slackSession.addMessageUpdatedListener(new SlackMessageUpdatedListener() {
+			public void onEvent(SlackMessageUpdated event, SlackSession session) {
+				long timestamp = TimestampMap.toKey(event.getMessageTimestamp());
+				Message relayedMessage = relayedMessages.get(timestamp);
+				if (relayedMessage != null && event.getNewMessage() != null
+						&& !event.getNewMessage().equals(relayedMessage.getContent())) {
+					l.trace("Firing property \"postedMessage\" for correction");
+					relayedMessages.put(timestamp, new Message(relayedMessage.getUsername(), event.getNewMessage()));
+					Message oldPostedMessage = postedMessage;
+					postedMessage = new Message(relayedMessage.getUsername(), "* correction: " + event.getNewMessage());
+					pcs.firePropertyChange("postedMessage", oldPostedMessage, postedMessage);
+				}
+			}
+		});
+
+		// add listener to relay deletions of recently relayed messages
+		slackSession.addMessageDeletedListener(new SlackMessageDeletedListener() {
+			public void onEvent(SlackMessageDeleted event, SlackSession session) {
+				Message relayedMessage = relayedMessages.remove(TimestampMap.toKey(event.getMessageTimestamp()));
+				if (relayedMessage != null) {
+					l.trace("Firing property \"postedMessage\" for deletion");
+					Message oldPostedMessage = postedMessage;
+					postedMessage = new Message(relayedMessage.getUsername(), "* deleted a message");
+					pcs.firePropertyChange("postedMessage", oldPostedMessage, postedMessage);
+				}
+			}
+		});
+
 		// add listener for debugging purposes
 		slackSession.addGroupJoinedListener(new SlackGroupJoinedListener() {
 			public void onEvent(SlackGroupJoined event, SlackSession session) {
@@ -125,17 +237,19 @@ public class SlackBot implements Bot {
 			}
 		});
 
-		// add listener for debugging purposes
+		// add listener to keep the names for mentions up to date
 		slackSession.addSlackUserChangeListener(new SlackUserChangeListener() {
 			public void onEvent(SlackUserChange event, SlackSession session) {
 				l.debug("event = " + event);
+				renameMention(event.getUser());
 			}
 		});
 
-		// add listener for debugging purposes
+		// add listener to build the names for mentions
 		slackSession.addSlackConnectedListener(new SlackConnectedListener() {
 			public void onEvent(SlackConnected event, SlackSession session) {
 				l.debug("event = " + event);
+				rebuildMentions();
 			}
 		});
 
@@ -149,17 +263,48 @@ public class SlackBot implements Bot {
 
 	/**
 	 * <p>
-	 * Sends a message to the configured channel in the Slack network.
+	 * Sends a message to the configured channel in the Slack network. Names
+	 * of channel members in the content of messages of users are translated
+	 * into mentions (notifications and command replies are left as they are).
+	 * Messages starting with the handle of a thread (like
+	 * <code>[t:k3.7]</code>) are posted as replies in the thread, messages
+	 * with an expired or reused handle are posted to the channel as they are.
 	 * </p>
 	 */
 	public void sendMessage(Message message) {
-		String sendMessage = "";
+		String content = message.getContent();
+		String threadTimestamp = null;
+		int prefixLength = SlackThreads.getHandlePrefixLength(content);
+		if (prefixLength > 0) {
+			threadTimestamp = threads.getThreadTimestamp(content.substring(1, prefixLength - 2));
+			if (threadTimestamp != null) {
+				content = content.substring(prefixLength);
+			}
+		}
+
 		if (message.getUsername() != null) {
-			sendMessage += "<" + message.getUsername() + "> ";
+			content = mentions.replace(content);
+		}
+		StringBuilder sb = new StringBuilder(content.length() + 32);
+		if (message.getUsername() != null) {
+			sb.append('<').append(message.getUsername()).append("> ");
+		}
+		String sendMessage = sb.append(content).toString();
+		l.trace("sendMessage = {}", sendMessage);
+		SlackChannel channel = slackSession.findChannelByName(properties.getProperty("slackChannel"));
+		if (threadTimestamp == null) {
+			slackSession.sendMessage(channel, sendMessage);
+		} else {
+			// the Slack API in use doesn't know threads, so the reply is
+			// posted by the Web API method
+			l.trace("threadTimestamp = {}", threadTimestamp);
+			Map<String, String> params = new HashMap<String, String>();
+			params.put("channel", channel.getId());
+			params.put("text", sendMessage);
+			params.put("thread_ts", threadTimestamp);
+			params.put("as_user", "true");
+			slackSession.postGenericSlackCommand(params, "chat.postMessage");
 		}
-		sendMessage += message.getContent();
-		l.trace("sendMessage = " + sendMessage);
-		slackSession.sendMessage(slackSession.findChannelByName(properties.getProperty("slackChannel")), sendMessage);
 	}
 
 	/**
@@ -182,9 +327,78 @@ public class SlackBot implements Bot {
 		return usernames;
 	}
 
+	/**
+	 * <p>
+	 * Rebuilds the trie of the names of the channel members for mentions.
+	 * </p>
+	 */
+	private synchronized void rebuildMentions() {
+		if (mentionMinLength == 0) {
+			return;
+		}
+		SlackChannel channel = slackSession.findChannelByName(properties.getProperty("slackChannel"));
+		if (channel == null) {
+			return;
+		}
+		Collection<SlackUser> members = channel.getMembers();
+		mentionNames.clear();
+		for (SlackUser member : members) {
+			if (member.getId() != null && member.getUserName() != null) {
+				mentionNames.put(member.getId(), member.getUserName());
+			}
+		}
+		mentions = new MentionTrie(members, mentionMinLength);
+		l.debug("Rebuilt mentions with " + mentions.size() + " names");
+	}
+
+	/**
+	 * <p>
+	 * Adds or removes the name of the given user in the trie of mentions.
+	 * </p>
+	 * 
+	 * @param user
+	 *            User who joined or left the channel
+	 * @param member
+	 *            Whether the user is a member of the channel
+	 */
+	private synchronized void updateMention(SlackUser user, boolean member) {
+		if (mentionMinLength == 0 || user == null || user.getId() == null) {
+			return;
+		}
+		MentionTrie trie = mentions;
+		String oldName = mentionNames.remove(user.getId());
+		if (oldName != null) {
+			trie = trie.remove(oldName, user.getId());
+		}
+		if (member && user.getUserName() != null) {
+			mentionNames.put(user.getId(), user.getUserName());
+			trie = trie.add(user);
+		}
+		mentions = trie;
+	}
+
+	/**
+	 * <p>
+	 * Updates the name of the given user in the trie of mentions if the user
+	 * is a member of the channel.
+	 * </p>
+	 * 
+	 * @param user
+	 *            Changed user
+	 */
+	private synchronized void renameMention(SlackUser user) {
+		if (user != null && mentionNames.containsKey(user.getId())) {
+			updateMention(user, true);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Logs the cached custom emojis of the Slack team.
+	 * </p>
+	 */
 	public void getEmojisList() {
-		SlackMessageHandle<EmojiSlackReply> handle = slackSession.listEmoji();
-		Map<String, String> emojis = handle.getReply().getEmojis();
+		Map<String, String> emojis = emojiCache.getEmojis();
 		for (String emojiName : emojis.keySet()) {
 			l.trace("emojiName = " + emojiName);
 			l.trace("emojis.get(emojiName) = " + emojis.get(emojiName));
@@ -198,6 +412,7 @@ public class SlackBot implements Bot {
 	 */
 	public void addPropertyChangeListener(PropertyChangeListener listener) {
 		pcs.addPropertyChangeListener(listener);
+		emojiCache.addPropertyChangeListener(listener);
 	}
 
 	/**
@@ -211,6 +426,7 @@ public class SlackBot implements Bot {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		emojiCache.start();
 	}
 
 	/**
@@ -0,0 +1,300 @@
+package de.justeazy.slack2irc.slack;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.ullink.slack.simpleslackapi.events.SlackMessagePosted;
+
+/**
+ * <p>
+ * Short handles of recent Slack threads. Replies in a thread are relayed to
+ * IRC with the handle of their thread (like <code>[t:k3.7]</code>, the first
+ * time with the first words of the parent message), and IRC users reply into
+ * the thread by starting their message with <code>[t:k3.7]</code>. The handle
+ * is the slot of the thread in a bounded <code>TimestampMap</code>, so memory
+ * and lookup cost stay constant on busy channels, followed by the generation
+ * of the slot, so a handle of a thread whose slot has been reused is rejected
+ * instead of replying into another thread.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class SlackThreads {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(SlackThreads.class);
+
+	/**
+	 * Prefix of the handles
+	 */
+	private static final String HANDLE_PREFIX = "t:";
+
+	/**
+	 * Maximum length of the first words of a parent message
+	 */
+	private static final int CONTEXT_LENGTH = 30;
+
+	/**
+	 * Accessor of the thread timestamp of posted messages (<code>null</code>
+	 * if the Slack API doesn't provide one)
+	 */
+	private static Method threadTimestampMethod;
+
+	/**
+	 * Accessor of the JSON source of posted messages (<code>null</code> if the
+	 * Slack API doesn't provide one)
+	 */
+	private static Method jsonSourceMethod;
+
+	/**
+	 * Whether the accessors have been looked up
+	 */
+	private static volatile boolean accessorsResolved = false;
+
+	/**
+	 * First words of the parent messages by the timestamps of the threads
+	 */
+	private TimestampMap<String> threads;
+
+	/**
+	 * Number of threads which have been added to each slot
+	 */
+	private int[] generations;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>SlackThreads</code> with the given
+	 * properties.
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties to configure the cache of threads
+	 */
+	public SlackThreads(Properties properties) {
+		threads = new TimestampMap<String>(Integer.parseInt(properties.getProperty("slackThreadCacheSize", "1296")),
+				TimeUnit.MINUTES.toMillis(Long.parseLong(properties.getProperty("slackThreadCacheMaxAge", "1440"))));
+		generations = new int[threads.getCapacity()];
+	}
+
+	/**
+	 * <p>
+	 * Returns the tag of a reply in the given thread and adds the thread if it
+	 * is new.
+	 * </p>
+	 * 
+	 * @param threadKey
+	 *            Timestamp of the thread (as returned by
+	 *            <code>TimestampMap.toKey()</code>)
+	 * @param parentContent
+	 *            Content of the parent message (<code>null</code> if unknown)
+	 * @return Tag like <code>[t:k3.7 re: first words...]</code> for the first
+	 *         reply of a thread and <code>[t:k3.7]</code> for all further
+	 *         replies
+	 */
+	public synchronized String tag(long threadKey, String parentContent) {
+		int slot = threads.slotOf(threadKey);
+		if (slot >= 0) {
+			return "[" + handle(slot) + "]";
+		}
+		String context = parentContent != null ? firstWords(parentContent) : "";
+		slot = threads.put(threadKey, context);
+		generations[slot]++;
+		if (context.length() == 0) {
+			return "[" + handle(slot) + "]";
+		}
+		return "[" + handle(slot) + " re: " + context + "]";
+	}
+
+	/**
+	 * <p>
+	 * Returns the length of the handle prefix (like <code>[t:k3.7] </code>)
+	 * of the given message from IRC.
+	 * </p>
+	 * 
+	 * @param content
+	 *            Content of the message
+	 * @return Length of the prefix including the brackets and the following
+	 *         space or <code>0</code> if the message doesn't start with a
+	 *         handle
+	 */
+	public static int getHandlePrefixLength(String content) {
+		if (!content.startsWith("[" + HANDLE_PREFIX)) {
+			return 0;
+		}
+		int i = skipDigits(content, HANDLE_PREFIX.length() + 1);
+		if (i == HANDLE_PREFIX.length() + 1 || i >= content.length() || content.charAt(i) != '.') {
+			return 0;
+		}
+		int j = skipDigits(content, i + 1);
+		if (j == i + 1 || j + 1 >= content.length() || content.charAt(j) != ']' || content.charAt(j + 1) != ' ') {
+			return 0;
+		}
+		return j + 2;
+	}
+
+	/**
+	 * <p>
+	 * Returns the Slack timestamp of the thread with the given handle.
+	 * </p>
+	 * 
+	 * @param handle
+	 *            Handle of the thread (like <code>t:k3.7</code>)
+	 * @return Slack timestamp or <code>null</code> if the handle is unknown,
+	 *         expired or has been reused for another thread
+	 */
+	public synchronized String getThreadTimestamp(String handle) {
+		int dot = handle.indexOf('.');
+		if (!handle.startsWith(HANDLE_PREFIX) || dot < 0) {
+			return null;
+		}
+		int slot;
+		int generation;
+		try {
+			slot = Integer.parseInt(handle.substring(HANDLE_PREFIX.length(), dot), 36);
+			generation = Integer.parseInt(handle.substring(dot + 1), 36);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (slot < 0 || slot >= generations.length || generations[slot] != generation) {
+			return null;
+		}
+		long key = threads.getKeyBySlot(slot);
+		if (key < 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder(17).append(key / 1000000).append('.');
+		String micros = Long.toString(key % 1000000);
+		for (int i = micros.length(); i < 6; i++) {
+			sb.append('0');
+		}
+		return sb.append(micros).toString();
+	}
+
+	/**
+	 * <p>
+	 * Returns the timestamp of the thread of the given posted message. The
+	 * Slack API in use doesn't know threads, so the timestamp is read by
+	 * reflection from newer versions of the API (or from the JSON source of
+	 * the message if it is available).
+	 * </p>
+	 * 
+	 * @param event
+	 *            Event of the posted message
+	 * @return Timestamp of the thread or <code>null</code> if the message is
+	 *         no reply in a thread
+	 */
+	@SuppressWarnings("rawtypes")
+	public static String getThreadTimestamp(SlackMessagePosted event) {
+		if (!accessorsResolved) {
+			resolveAccessors(event.getClass());
+		}
+		Object threadTimestamp = null;
+		try {
+			if (threadTimestampMethod != null) {
+				threadTimestamp = threadTimestampMethod.invoke(event);
+			} else if (jsonSourceMethod != null) {
+				Object json = jsonSourceMethod.invoke(event);
+				if (json instanceof Map) {
+					threadTimestamp = ((Map) json).get("thread_ts");
+				}
+			}
+		} catch (Exception e) {
+			l.error("Error reading the thread timestamp", e);
+			return null;
+		}
+		// the parent message of a thread has its own timestamp as thread
+		// timestamp
+		if (threadTimestamp == null || threadTimestamp.equals(event.getTimeStamp())) {
+			return null;
+		}
+		return threadTimestamp.toString();
+	}
+
+	/**
+	 * <p>
+	 * Looks up the accessors of the thread timestamp of the given class of
+	 * posted messages.
+	 * </p>
+	 * 
+	 * @param eventClass
+	 *            Class of posted messages
+	 */
+	private static synchronized void resolveAccessors(Class<?> eventClass) {
+		if (accessorsResolved) {
+			return;
+		}
+		try {
+			threadTimestampMethod = eventClass.getMethod("getThreadTimestamp");
+			// the implementing class may not be public
+			threadTimestampMethod.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			try {
+				jsonSourceMethod = eventClass.getMethod("getJsonSource");
+				jsonSourceMethod.setAccessible(true);
+			} catch (NoSuchMethodException e2) {
+				l.warn("The Slack API doesn't provide thread timestamps, replies in threads are relayed untagged");
+			}
+		}
+		accessorsResolved = true;
+	}
+
+	/**
+	 * <p>
+	 * Returns the handle of the thread in the given slot.
+	 * </p>
+	 * 
+	 * @param slot
+	 *            Slot of the thread
+	 * @return Handle like <code>t:k3.7</code>
+	 */
+	private String handle(int slot) {
+		return HANDLE_PREFIX + Integer.toString(slot, 36) + "." + Integer.toString(generations[slot], 36);
+	}
+
+	/**
+	 * <p>
+	 * Skips the base 36 digits at the given index of the given text.
+	 * </p>
+	 * 
+	 * @param text
+	 *            Text
+	 * @param start
+	 *            Index to start at
+	 * @return Index of the first character which is no digit
+	 */
+	private static int skipDigits(String text, int start) {
+		int i = start;
+		while (i < text.length() && Character.digit(text.charAt(i), 36) >= 0) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * <p>
+	 * Returns the first words of the given text.
+	 * </p>
+	 * 
+	 * @param text
+	 *            Text
+	 * @return First words ending with "..." if the text is longer
+	 */
+	private static String firstWords(String text) {
+		if (text.length() <= CONTEXT_LENGTH) {
+			return text;
+		}
+		int end = text.lastIndexOf(' ', CONTEXT_LENGTH);
+		if (end <= 0) {
+			end = CONTEXT_LENGTH;
+		}
+		return text.substring(0, end) + "...";
+	}
+
+}
@@ -0,0 +1,341 @@
+package de.justeazy.slack2irc.slack;
+
+/**
+ * <p>
+ * Bounded map from Slack message timestamps to values. Timestamps are stored
+ * as primitive <code>long</code>s in a ring of fixed size, so adding an entry
+ * to a full map evicts the oldest one. Entries older than the maximum age are
+ * treated as absent. Lookups use an open addressing index into the ring, so
+ * memory and lookup cost do not grow with the traffic.
+ * </p>
+ * 
+ * @author Henrik Peters
+ * 
+ * @param <V>
+ *            Type of the values
+ */
+public class TimestampMap<V> {
+
+	/**
+	 * Maximum number of entries
+	 */
+	private int capacity;
+
+	/**
+	 * Maximum age of an entry in milliseconds
+	 */
+	private long maxAge;
+
+	/**
+	 * Keys of the ring
+	 */
+	private long[] keys;
+
+	/**
+	 * Values of the ring (<code>null</code> for free slots)
+	 */
+	private Object[] values;
+
+	/**
+	 * Insertion times of the ring
+	 */
+	private long[] times;
+
+	/**
+	 * Next slot of the ring to write
+	 */
+	private int next = 0;
+
+	/**
+	 * Open addressing index with the slot + 1 of every key (<code>0</code> for
+	 * free positions)
+	 */
+	private int[] index;
+
+	/**
+	 * Mask for positions of the index
+	 */
+	private int mask;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>TimestampMap</code>.
+	 * </p>
+	 * 
+	 * @param capacity
+	 *            Maximum number of entries (at least <code>1</code>)
+	 * @param maxAge
+	 *            Maximum age of an entry in milliseconds
+	 */
+	public TimestampMap(int capacity, long maxAge) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		}
+		this.capacity = capacity;
+		this.maxAge = maxAge;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		times = new long[capacity];
+
+		int indexSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+		index = new int[indexSize];
+		mask = indexSize - 1;
+	}
+
+	/**
+	 * <p>
+	 * Converts a Slack timestamp like <code>1458170917.164398</code> to a
+	 * <code>long</code> (microseconds) without creating objects.
+	 * </p>
+	 * 
+	 * @param timestamp
+	 *            Slack timestamp
+	 * @return Timestamp as <code>long</code> or <code>-1</code> if the
+	 *         timestamp is invalid
+	 */
+	public static long toKey(String timestamp) {
+		if (timestamp == null || timestamp.length() == 0) {
+			return -1;
+		}
+		long seconds = 0;
+		long micros = 0;
+		int fractionDigits = -1;
+		for (int i = 0; i < timestamp.length(); i++) {
+			char c = timestamp.charAt(i);
+			if (c == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			} else if (c >= '0' && c <= '9') {
+				if (fractionDigits < 0) {
+					seconds = seconds * 10 + (c - '0');
+				} else if (fractionDigits < 6) {
+					micros = micros * 10 + (c - '0');
+					fractionDigits++;
+				}
+			} else {
+				return -1;
+			}
+		}
+		for (int i = Math.max(fractionDigits, 0); i < 6; i++) {
+			micros *= 10;
+		}
+		return seconds * 1000000L + micros;
+	}
+
+	/**
+	 * <p>
+	 * Adds or replaces the value of the given key. The oldest entry is evicted
+	 * if the map is full. Invalid timestamps are not stored.
+	 * </p>
+	 * 
+	 * @param key
+	 *            Timestamp
+	 * @param value
+	 *            Value (not <code>null</code>)
+	 * @return Slot of the entry or <code>-1</code> if the timestamp is invalid
+	 */
+	public synchronized int put(long key, V value) {
+		if (key < 0) {
+			return -1;
+		}
+		int position = find(key);
+		int slot;
+		if (position >= 0) {
+			slot = index[position] - 1;
+		} else {
+			slot = next;
+			next = (next + 1) % capacity;
+			if (values[slot] != null) {
+				removeFromIndex(find(keys[slot]));
+			}
+			keys[slot] = key;
+			position = hash(key);
+			while (index[position] != 0) {
+				position = (position + 1) & mask;
+			}
+			index[position] = slot + 1;
+		}
+		values[slot] = value;
+		times[slot] = System.currentTimeMillis();
+		return slot;
+	}
+
+	/**
+	 * <p>
+	 * Returns the value of the given key.
+	 * </p>
+	 * 
+	 * @param key
+	 *            Timestamp
+	 * @return Value or <code>null</code> if the key is unknown or expired
+	 */
+	public synchronized V get(long key) {
+		return getBySlot(slotOf(key));
+	}
+
+	/**
+	 * <p>
+	 * Returns the slot of the given key. The slot of an entry does not change
+	 * until the entry is evicted.
+	 * </p>
+	 * 
+	 * @param key
+	 *            Timestamp
+	 * @return Slot or <code>-1</code> if the key is unknown or expired
+	 */
+	public synchronized int slotOf(long key) {
+		int position = find(key);
+		if (position < 0) {
+			return -1;
+		}
+		int slot = index[position] - 1;
+		return isExpired(slot) ? -1 : slot;
+	}
+
+	/**
+	 * <p>
+	 * Returns the value of the given slot.
+	 * </p>
+	 * 
+	 * @param slot
+	 *            Slot
+	 * @return Value or <code>null</code> if the slot is free or expired
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V getBySlot(int slot) {
+		if (slot < 0 || slot >= capacity || isExpired(slot)) {
+			return null;
+		}
+		return (V) values[slot];
+	}
+
+	/**
+	 * <p>
+	 * Returns the key of the given slot.
+	 * </p>
+	 * 
+	 * @param slot
+	 *            Slot
+	 * @return Timestamp or <code>-1</code> if the slot is free or expired
+	 */
+	public synchronized long getKeyBySlot(int slot) {
+		if (slot < 0 || slot >= capacity || isExpired(slot)) {
+			return -1;
+		}
+		return keys[slot];
+	}
+
+	/**
+	 * <p>
+	 * Removes the value of the given key.
+	 * </p>
+	 * 
+	 * @param key
+	 *            Timestamp
+	 * @return Removed value or <code>null</code> if the key is unknown or
+	 *         expired
+	 */
+	public synchronized V remove(long key) {
+		int position = find(key);
+		if (position < 0) {
+			return null;
+		}
+		int slot = index[position] - 1;
+		V value = getBySlot(slot);
+		removeFromIndex(position);
+		values[slot] = null;
+		return value;
+	}
+
+	/**
+	 * <p>
+	 * Returns the maximum number of entries.
+	 * </p>
+	 * 
+	 * @return Capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the given slot is free or older than the maximum age.
+	 * </p>
+	 * 
+	 * @param slot
+	 *            Slot
+	 * @return <code>true</code> if the slot is expired
+	 */
+	private boolean isExpired(int slot) {
+		return values[slot] == null || System.currentTimeMillis() - times[slot] > maxAge;
+	}
+
+	/**
+	 * <p>
+	 * Returns the position of the given key in the index.
+	 * </p>
+	 * 
+	 * @param key
+	 *            Timestamp
+	 * @return Position or <code>-1</code> if the key is unknown
+	 */
+	private int find(long key) {
+		if (key < 0) {
+			return -1;
+		}
+		int position = hash(key);
+		int slot;
+		while ((slot = index[position]) != 0) {
+			if (keys[slot - 1] == key) {
+				return position;
+			}
+			position = (position + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * <p>
+	 * Removes the given position from the index and moves following entries
+	 * back to keep the probe sequences intact.
+	 * </p>
+	 * 
+	 * @param position
+	 *            Position to remove
+	 */
+	private void removeFromIndex(int position) {
+		int free = position;
+		int current = position;
+		while (true) {
+			current = (current + 1) & mask;
+			int slot = index[current];
+			if (slot == 0) {
+				break;
+			}
+			int home = hash(keys[slot - 1]);
+			// move the entry if its home position is not between the free and
+			// the current position (cyclically)
+			boolean between = free <= current ? (free < home && home <= current) : (free < home || home <= current);
+			if (!between) {
+				index[free] = slot;
+				free = current;
+			}
+		}
+		index[free] = 0;
+	}
+
+	/**
+	 * <p>
+	 * Returns the home position of the given key in the index.
+	 * </p>
+	 * 
+	 * @param key
+	 *            Timestamp
+	 * @return Position
+	 */
+	private int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+}
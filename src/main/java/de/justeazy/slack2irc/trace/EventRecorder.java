@@ -0,0 +1,174 @@
+package de.justeazy.slack2irc.trace;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Records all messages fired by the bots to a trace file, which can be
+ * replayed by <code>TraceReplay</code>. The file starts with a header (magic
+ * number and start time) followed by the events. The file is flushed on a
+ * schedule, so a crash loses at most the events of one flush interval.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class EventRecorder {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(EventRecorder.class);
+
+	/**
+	 * Magic number of trace files ("S2IT")
+	 */
+	static final int MAGIC = 0x53324954;
+
+	/**
+	 * Stream of the trace file (<code>null</code> after closing)
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * Start of the recording in nanoseconds
+	 */
+	private long startNanos;
+
+	/**
+	 * Executor of the flushes
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>EventRecorder</code> writing to the given
+	 * file.
+	 * </p>
+	 * 
+	 * @param traceFile
+	 *            Trace file
+	 * @param flushInterval
+	 *            Interval between two flushes of the trace file in seconds
+	 * @throws IOException
+	 *             If the trace file can't be created
+	 */
+	public EventRecorder(String traceFile, long flushInterval) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile), 65536));
+		out.writeInt(MAGIC);
+		out.writeLong(System.currentTimeMillis());
+		startNanos = System.nanoTime();
+		l.debug("Recording events to " + traceFile);
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "trace-flush");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, flushInterval, flushInterval, TimeUnit.SECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Returns a listener recording the messages fired by a bot of the given
+	 * origin.
+	 * </p>
+	 * 
+	 * @param origin
+	 *            Origin of the events (<code>ORIGIN_IRC</code> or
+	 *            <code>ORIGIN_SLACK</code> of <code>TraceEvent</code>)
+	 * @return Listener to add to the bot
+	 */
+	public PropertyChangeListener getListener(final byte origin) {
+		return new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getNewValue() instanceof Message) {
+					Message message = (Message) evt.getNewValue();
+					record(new TraceEvent(System.nanoTime() - startNanos, origin, evt.getPropertyName(),
+							message.getUsername(), message.getContent()));
+				}
+			}
+		};
+	}
+
+	/**
+	 * <p>
+	 * Writes the given event to the trace file.
+	 * </p>
+	 * 
+	 * @param event
+	 *            Event
+	 */
+	private synchronized void record(TraceEvent event) {
+		if (out == null) {
+			return;
+		}
+		try {
+			event.write(out);
+		} catch (IOException e) {
+			l.error("Error recording event, stopping recording", e);
+			close();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Flushes the recorded events to the trace file.
+	 * </p>
+	 */
+	private synchronized void flush() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.flush();
+		} catch (IOException e) {
+			l.error("Error flushing event trace, stopping recording", e);
+			close();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Flushes and closes the trace file.
+	 * </p>
+	 */
+	public synchronized void close() {
+		if (out == null) {
+			return;
+		}
+		scheduler.shutdown();
+		try {
+			out.close();
+		} catch (IOException e) {
+			l.error("Error closing event trace", e);
+		}
+		out = null;
+	}
+
+}
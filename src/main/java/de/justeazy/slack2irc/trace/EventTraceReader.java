@@ -0,0 +1,89 @@
+package de.justeazy.slack2irc.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Reads the events of a trace file written by <code>EventRecorder</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class EventTraceReader {
+
+	/**
+	 * Stream of the trace file
+	 */
+	private DataInputStream in;
+
+	/**
+	 * Start time of the recording in milliseconds since the epoch
+	 */
+	private long startTime;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>EventTraceReader</code> and reads the
+	 * header of the given trace file.
+	 * </p>
+	 * 
+	 * @param traceFile
+	 *            Trace file
+	 * @throws IOException
+	 *             If the file can't be read or is no trace file
+	 */
+	public EventTraceReader(String traceFile) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile), 65536));
+		if (in.readInt() != EventRecorder.MAGIC) {
+			in.close();
+			throw new IOException(traceFile + " is no event trace");
+		}
+		startTime = in.readLong();
+	}
+
+	/**
+	 * <p>
+	 * Reads the next event.
+	 * </p>
+	 * 
+	 * @return Event or <code>null</code> at the end of the trace (or at a
+	 *         truncated event)
+	 * @throws IOException
+	 *             If the trace can't be read
+	 */
+	public TraceEvent read() throws IOException {
+		try {
+			return TraceEvent.read(in);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the start time of the recording.
+	 * </p>
+	 * 
+	 * @return Start time in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * <p>
+	 * Closes the trace file.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the file can't be closed
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
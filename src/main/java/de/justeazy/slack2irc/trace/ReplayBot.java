@@ -0,0 +1,120 @@
+package de.justeazy.slack2irc.trace;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+
+import de.justeazy.slack2irc.Bot;
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Bot without network connection which fires recorded events and counts the
+ * messages sent to it.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class ReplayBot implements Bot {
+
+	/**
+	 * Support for property changes
+	 */
+	private PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+
+	/**
+	 * Last posted message
+	 */
+	private Message postedMessage = null;
+
+	/**
+	 * Number of messages sent to the bot
+	 */
+	private long sentMessages = 0;
+
+	/**
+	 * <p>
+	 * Fires the given recorded event.
+	 * </p>
+	 * 
+	 * @param event
+	 *            Recorded event
+	 */
+	public void fire(TraceEvent event) {
+		fire(event.getPropertyName(), new Message(event.getSender(), event.getContent()));
+	}
+
+	/**
+	 * <p>
+	 * Fires the given message for the given property.
+	 * </p>
+	 * 
+	 * @param propertyName
+	 *            Name of the property (like "postedMessage")
+	 * @param message
+	 *            Message
+	 */
+	public void fire(String propertyName, Message message) {
+		Message oldPostedMessage = null;
+		if (propertyName.equals("postedMessage")) {
+			oldPostedMessage = postedMessage;
+			postedMessage = message;
+		}
+		pcs.firePropertyChange(propertyName, oldPostedMessage, message);
+	}
+
+	/**
+	 * <p>
+	 * Counts the sent message.
+	 * </p>
+	 */
+	public void sendMessage(Message message) {
+		sentMessages++;
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of messages sent to the bot.
+	 * </p>
+	 * 
+	 * @return Number of sent messages
+	 */
+	public long getSentMessages() {
+		return sentMessages;
+	}
+
+	/**
+	 * <p>
+	 * Adds the given property change listener to the bot.
+	 * </p>
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * <p>
+	 * Returns the last posted message.
+	 * </p>
+	 */
+	public Message getPostedMessage() {
+		return postedMessage;
+	}
+
+	/**
+	 * <p>
+	 * Returns no channel users.
+	 * </p>
+	 */
+	public String[] getChannelUsers() {
+		return new String[0];
+	}
+
+	/**
+	 * <p>
+	 * Does nothing, since the bot has no network connection.
+	 * </p>
+	 */
+	public void run() {
+	}
+
+}
@@ -0,0 +1,209 @@
+package de.justeazy.slack2irc.trace;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import de.justeazy.slack2irc.transcript.StringCodec;
+
+/**
+ * <p>
+ * Single event fired by one of the bots and recorded to an event trace.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class TraceEvent {
+
+	/**
+	 * Origin of events fired by the IRC bot
+	 */
+	public static final byte ORIGIN_IRC = 0;
+
+	/**
+	 * Origin of events fired by the Slack bot
+	 */
+	public static final byte ORIGIN_SLACK = 1;
+
+	/**
+	 * Maximum length of a string of an event in bytes (longer lengths are
+	 * treated as corrupt)
+	 */
+	private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+	/**
+	 * Time of the event in nanoseconds since the start of the recording
+	 */
+	private long offset;
+
+	/**
+	 * Origin of the event
+	 */
+	private byte origin;
+
+	/**
+	 * Name of the fired property (like "postedMessage")
+	 */
+	private String propertyName;
+
+	/**
+	 * Username of the message (may be <code>null</code>)
+	 */
+	private String sender;
+
+	/**
+	 * Content of the message
+	 */
+	private String content;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>TraceEvent</code>.
+	 * </p>
+	 * 
+	 * @param offset
+	 *            Time of the event in nanoseconds since the start of the
+	 *            recording
+	 * @param origin
+	 *            Origin of the event (<code>ORIGIN_IRC</code> or
+	 *            <code>ORIGIN_SLACK</code>)
+	 * @param propertyName
+	 *            Name of the fired property
+	 * @param sender
+	 *            Username of the message (may be <code>null</code>)
+	 * @param content
+	 *            Content of the message
+	 */
+	public TraceEvent(long offset, byte origin, String propertyName, String sender, String content) {
+		this.offset = offset;
+		this.origin = origin;
+		this.propertyName = propertyName;
+		this.sender = sender;
+		this.content = content;
+	}
+
+	/**
+	 * <p>
+	 * Writes the event to the given stream.
+	 * </p>
+	 * 
+	 * @param out
+	 *            Stream of the trace
+	 * @throws IOException
+	 *             If the event can't be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeLong(offset);
+		out.writeByte(origin);
+		StringCodec.writeString(out, propertyName);
+		StringCodec.writeString(out, sender);
+		StringCodec.writeString(out, content);
+	}
+
+	/**
+	 * <p>
+	 * Reads an event from the given stream.
+	 * </p>
+	 * 
+	 * @param in
+	 *            Stream of the trace
+	 * @return Event
+	 * @throws EOFException
+	 *             If the trace ends within the event
+	 * @throws IOException
+	 *             If the event can't be read or is corrupt
+	 */
+	static TraceEvent read(DataInputStream in) throws IOException {
+		long offset = in.readLong();
+		byte origin = in.readByte();
+		String propertyName = readString(in);
+		String sender = readString(in);
+		return new TraceEvent(offset, origin, propertyName, sender, readString(in));
+	}
+
+	/**
+	 * <p>
+	 * Reads a string of an event. Its length is checked before the string is
+	 * allocated, so a corrupt length prefix can't exhaust the memory.
+	 * </p>
+	 * 
+	 * @param in
+	 *            Stream of the trace
+	 * @return String (may be <code>null</code>)
+	 * @throws EOFException
+	 *             If the trace ends within the string
+	 * @throws IOException
+	 *             If the string can't be read or its length is corrupt
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		// the length is read ahead to tell a truncated from a corrupt trace
+		in.mark(4);
+		int length = in.readInt();
+		in.reset();
+		if (length > MAX_STRING_LENGTH) {
+			throw new IOException("String of " + length + " bytes exceeds " + MAX_STRING_LENGTH + " bytes");
+		}
+		if (length > in.available() - 4) {
+			// the remaining data of a file stream is known
+			throw new EOFException("Trace ends within a string of " + length + " bytes");
+		}
+		return StringCodec.readString(in, MAX_STRING_LENGTH);
+	}
+
+	/**
+	 * <p>
+	 * Returns the time of the event.
+	 * </p>
+	 * 
+	 * @return Time in nanoseconds since the start of the recording
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * <p>
+	 * Returns the origin of the event.
+	 * </p>
+	 * 
+	 * @return <code>ORIGIN_IRC</code> or <code>ORIGIN_SLACK</code>
+	 */
+	public byte getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * <p>
+	 * Returns the name of the fired property.
+	 * </p>
+	 * 
+	 * @return Property name
+	 */
+	public String getPropertyName() {
+		return propertyName;
+	}
+
+	/**
+	 * <p>
+	 * Returns the username of the message.
+	 * </p>
+	 * 
+	 * @return Username (may be <code>null</code>)
+	 */
+	public String getSender() {
+		return sender;
+	}
+
+	/**
+	 * <p>
+	 * Returns the content of the message.
+	 * </p>
+	 * 
+	 * @return Content
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
@@ -0,0 +1,259 @@
+package de.justeazy.slack2irc.trace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import de.justeazy.slack2irc.Slack2IrcBridge;
+import de.justeazy.slack2irc.transcript.TranscriptWriter;
+
+/**
+ * <p>
+ * Replays a trace recorded by <code>EventRecorder</code> through a
+ * <code>Slack2IrcBridge</code> with <code>ReplayBot</code>s and reports
+ * throughput, backlog (events due but not yet dispatched) and latency
+ * percentiles. The bridge neither records a trace nor takes part in high
+ * availability, and it only writes a transcript to the file given by
+ * <code>replayTranscriptFile</code>, so a production configuration can be
+ * used without touching the files of the production bridge.
+ * </p>
+ * <p>
+ * Example call: <code>java -cp &lt;jarFile&gt;
+ * de.justeazy.slack2irc.trace.TraceReplay &lt;traceFile&gt; [1|10|max]
+ * [&lt;configFile&gt;]</code>
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class TraceReplay {
+
+	/**
+	 * Events of the trace
+	 */
+	private List<TraceEvent> events;
+
+	/**
+	 * Speed factor of the replay (<code>0</code> for maximum speed)
+	 */
+	private double speed;
+
+	/**
+	 * Replayed bridge
+	 */
+	private Slack2IrcBridge bridge;
+
+	/**
+	 * Bot replaying the IRC events
+	 */
+	private ReplayBot ircBot = new ReplayBot();
+
+	/**
+	 * Bot replaying the Slack events
+	 */
+	private ReplayBot slackBot = new ReplayBot();
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>TraceReplay</code>.
+	 * </p>
+	 * 
+	 * @param events
+	 *            Events to replay
+	 * @param speed
+	 *            Speed factor (<code>0</code> for maximum speed)
+	 * @param properties
+	 *            Properties of the bridge
+	 * @throws IOException
+	 *             If the bridge can't be created
+	 */
+	public TraceReplay(List<TraceEvent> events, double speed, Properties properties) throws IOException {
+		this.events = events;
+		this.speed = speed;
+		properties.remove("traceFile");
+		properties.remove("haLeaseFile");
+		properties.remove("transcriptFile");
+		if (properties.getProperty("replayTranscriptFile") != null) {
+			properties.setProperty("transcriptFile", properties.getProperty("replayTranscriptFile"));
+		}
+		bridge = new Slack2IrcBridge(properties, ircBot, slackBot);
+	}
+
+	/**
+	 * <p>
+	 * Reads all events of the given trace file.
+	 * </p>
+	 * 
+	 * @param traceFile
+	 *            Trace file
+	 * @return Events
+	 * @throws IOException
+	 *             If the trace can't be read
+	 */
+	public static List<TraceEvent> readEvents(String traceFile) throws IOException {
+		List<TraceEvent> events = new ArrayList<TraceEvent>();
+		EventTraceReader reader = new EventTraceReader(traceFile);
+		try {
+			TraceEvent event;
+			while ((event = reader.read()) != null) {
+				events.add(event);
+			}
+		} finally {
+			reader.close();
+		}
+		return events;
+	}
+
+	/**
+	 * <p>
+	 * Replays the events and prints the report to stdout.
+	 * </p>
+	 */
+	public void replay() {
+		bridge.start();
+		TranscriptWriter transcriptWriter = bridge.getTranscriptWriter();
+
+		int count = events.size();
+		long[] latencies = new long[count];
+		int[] backlogs = new int[count];
+		int maxTranscriptQueue = 0;
+		int due = 0;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			TraceEvent event = events.get(i);
+			long scheduled = start + (speed > 0 ? (long) (event.getOffset() / speed) : 0);
+			long now = System.nanoTime();
+			while (scheduled > now) {
+				LockSupport.parkNanos(scheduled - now);
+				now = System.nanoTime();
+			}
+
+			// events already due are the backlog of the dispatching thread
+			if (speed > 0) {
+				due = Math.max(due, i + 1);
+				while (due < count && start + (long) (events.get(due).getOffset() / speed) <= now) {
+					due++;
+				}
+				backlogs[i] = due - i - 1;
+			}
+
+			(event.getOrigin() == TraceEvent.ORIGIN_IRC ? ircBot : slackBot).fire(event);
+			latencies[i] = System.nanoTime() - now;
+
+			if (transcriptWriter != null) {
+				maxTranscriptQueue = Math.max(maxTranscriptQueue, transcriptWriter.getQueueSize());
+			}
+		}
+		long duration = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+		Arrays.sort(backlogs);
+		System.out.println("Events:              " + count);
+		System.out.println("Relayed to Slack:    " + slackBot.getSentMessages());
+		System.out.println("Relayed to IRC:      " + ircBot.getSentMessages());
+		System.out.println("Duration:            " + TimeUnit.NANOSECONDS.toMillis(duration) + " ms");
+		System.out.println("Throughput:          "
+				+ String.format("%.1f", count / Math.max(duration / 1e9, 1e-9)) + " events/s");
+		System.out.println("Latency p50/p90/p99/max: " + micros(percentile(latencies, 50)) + " / "
+				+ micros(percentile(latencies, 90)) + " / " + micros(percentile(latencies, 99)) + " / "
+				+ micros(count > 0 ? latencies[count - 1] : 0) + " us");
+		if (speed > 0) {
+			System.out.println("Backlog p50/p99/max: " + percentile(backlogs, 50) + " / " + percentile(backlogs, 99)
+					+ " / " + (count > 0 ? backlogs[count - 1] : 0) + " events");
+		}
+		if (transcriptWriter != null) {
+			System.out.println("Transcript queue max: " + maxTranscriptQueue + " records ("
+					+ transcriptWriter.getDroppedRecords() + " dropped)");
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the given percentile of the sorted values.
+	 * </p>
+	 * 
+	 * @param sorted
+	 *            Sorted values
+	 * @param percentile
+	 *            Percentile (0 to 100)
+	 * @return Value of the percentile
+	 */
+	private static long percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * percentile / 100))];
+	}
+
+	/**
+	 * <p>
+	 * Returns the given percentile of the sorted values.
+	 * </p>
+	 * 
+	 * @param sorted
+	 *            Sorted values
+	 * @param percentile
+	 *            Percentile (0 to 100)
+	 * @return Value of the percentile
+	 */
+	private static int percentile(int[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * percentile / 100))];
+	}
+
+	/**
+	 * <p>
+	 * Formats the given nanoseconds as microseconds.
+	 * </p>
+	 * 
+	 * @param nanos
+	 *            Nanoseconds
+	 * @return Microseconds
+	 */
+	private static String micros(long nanos) {
+		return String.format("%.1f", nanos / 1000.0);
+	}
+
+	/**
+	 * <p>
+	 * Parses the command line call and replays the given trace. Exits with
+	 * status 1 if the replay fails.
+	 * </p>
+	 * 
+	 * @param args
+	 *            Trace file, speed (<code>1</code>, <code>10</code> or
+	 *            <code>max</code>) and optional properties file of the bridge
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 3) {
+			System.out.println("Usage: java -cp <jarFile> " + TraceReplay.class.getName()
+					+ " <traceFile> [1|10|max] [<configFile>]");
+			return;
+		}
+
+		int status = 1;
+		try {
+			double speed = 1;
+			if (args.length > 1) {
+				speed = args[1].equals("max") ? 0 : Double.parseDouble(args[1]);
+			}
+			Properties properties = args.length > 2 ? Slack2IrcBridge.initProperties(args[2]) : new Properties();
+
+			new TraceReplay(readEvents(args[0]), speed, properties).replay();
+			status = 0;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		// the threads of the bridge would keep running
+		System.exit(status);
+	}
+
+}
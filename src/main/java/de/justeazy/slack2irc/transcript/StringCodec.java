@@ -0,0 +1,90 @@
+package de.justeazy.slack2irc.transcript;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * Encoding of the strings of the binary files of the bridge (transcript
+ * segments and event traces). A string is written as its length in bytes
+ * (<code>int</code>, <code>-1</code> for <code>null</code>) followed by its
+ * UTF-8 bytes.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class StringCodec {
+
+	/**
+	 * Charset of the strings
+	 */
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * <p>
+	 * Writes the given string to the given stream.
+	 * </p>
+	 * 
+	 * @param out
+	 *            Stream to write to
+	 * @param string
+	 *            String (may be <code>null</code>)
+	 * @throws IOException
+	 *             If the string can't be written
+	 */
+	public static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = string.getBytes(UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Reads a string written by <code>writeString()</code> from the given
+	 * stream.
+	 * </p>
+	 * 
+	 * @param in
+	 *            Stream to read from
+	 * @return String (may be <code>null</code>)
+	 * @throws IOException
+	 *             If the string can't be read
+	 */
+	public static String readString(DataInputStream in) throws IOException {
+		return readString(in, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * <p>
+	 * Reads a string written by <code>writeString()</code> from the given
+	 * stream and rejects it if it is longer than the given number of bytes.
+	 * </p>
+	 * 
+	 * @param in
+	 *            Stream to read from
+	 * @param maxLength
+	 *            Maximum length of the string in bytes
+	 * @return String (may be <code>null</code>)
+	 * @throws IOException
+	 *             If the string can't be read or is too long
+	 */
+	public static String readString(DataInputStream in, int maxLength) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > maxLength) {
+			throw new IOException("String of " + length + " bytes exceeds " + maxLength + " bytes");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+}
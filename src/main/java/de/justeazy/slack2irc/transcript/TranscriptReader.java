@@ -0,0 +1,205 @@
+package de.justeazy.slack2irc.transcript;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Reads the records of a transcript segment written by
+ * <code>TranscriptWriter</code>. Every record is checked against its length
+ * prefix, records whose fields don't match it are skipped and counted.
+ * </p>
+ * <p>
+ * Example call: <code>java -cp &lt;jarFile&gt;
+ * de.justeazy.slack2irc.transcript.TranscriptReader &lt;segmentFile&gt;...</code>
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class TranscriptReader {
+
+	/**
+	 * Minimum length of a record (timestamp, direction and the lengths of two
+	 * strings)
+	 */
+	private static final int MIN_RECORD_LENGTH = 8 + 1 + 4 + 4;
+
+	/**
+	 * Maximum length of a record (longer length prefixes are corrupt)
+	 */
+	private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Stream of the segment
+	 */
+	private DataInputStream in;
+
+	/**
+	 * Number of records skipped because they don't match their length prefix
+	 */
+	private long skippedRecords = 0;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>TranscriptReader</code> for the given
+	 * (uncompressed) stream.
+	 * </p>
+	 * 
+	 * @param in
+	 *            Stream of the records
+	 */
+	public TranscriptReader(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>TranscriptReader</code> for the given
+	 * segment file.
+	 * </p>
+	 * 
+	 * @param segmentFile
+	 *            Gzip compressed segment file
+	 * @throws IOException
+	 *             If the file can't be read
+	 */
+	public TranscriptReader(String segmentFile) throws IOException {
+		this(new BufferedInputStream(new GZIPInputStream(new FileInputStream(segmentFile)), 65536));
+	}
+
+	/**
+	 * <p>
+	 * Reads the next record.
+	 * </p>
+	 * 
+	 * @return Record or <code>null</code> at the end of the segment (or at a
+	 *         truncated record of a segment which was not closed properly)
+	 * @throws IOException
+	 *             If the segment can't be read or a length prefix is corrupt
+	 */
+	public TranscriptRecord read() throws IOException {
+		while (true) {
+			byte[] bytes;
+			try {
+				int length = in.readInt();
+				if (length < MIN_RECORD_LENGTH || length > MAX_RECORD_LENGTH) {
+					// the following records can't be found anymore
+					throw new IOException("Corrupt transcript record length " + length);
+				}
+				bytes = new byte[length];
+				in.readFully(bytes);
+			} catch (EOFException e) {
+				return null;
+			}
+
+			TranscriptRecord record = decode(bytes);
+			if (record != null) {
+				return record;
+			}
+			skippedRecords++;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Decodes the given bytes of a record.
+	 * </p>
+	 * 
+	 * @param bytes
+	 *            Bytes of the record as given by its length prefix
+	 * @return Record or <code>null</code> if the fields don't match the length
+	 *         of the record
+	 */
+	private static TranscriptRecord decode(byte[] bytes) {
+		DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			long timestamp = record.readLong();
+			byte direction = record.readByte();
+			String sender = StringCodec.readString(record, record.available() - 4);
+			String content = StringCodec.readString(record, record.available() - 4);
+			if (content == null || record.available() != 0) {
+				return null;
+			}
+			return new TranscriptRecord(timestamp, direction, sender, content);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of records skipped so far because their fields didn't
+	 * match their length prefix.
+	 * </p>
+	 * 
+	 * @return Number of skipped records
+	 */
+	public long getSkippedRecords() {
+		return skippedRecords;
+	}
+
+	/**
+	 * <p>
+	 * Closes the segment.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the segment can't be closed
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * <p>
+	 * Prints the records of the given segment files to stdout.
+	 * </p>
+	 * 
+	 * @param args
+	 *            Segment files
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: java -cp <jarFile> " + TranscriptReader.class.getName() + " <segmentFile>...");
+			return;
+		}
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		for (String segmentFile : args) {
+			try {
+				TranscriptReader reader = new TranscriptReader(segmentFile);
+				try {
+					TranscriptRecord record;
+					while ((record = reader.read()) != null) {
+						StringBuilder line = new StringBuilder();
+						line.append(dateFormat.format(new Date(record.getTimestamp())));
+						line.append(
+								record.getDirection() == TranscriptRecord.IRC_TO_SLACK ? " IRC->Slack " : " Slack->IRC ");
+						if (record.getSender() != null) {
+							line.append('<').append(record.getSender()).append("> ");
+						}
+						line.append(record.getContent());
+						System.out.println(line);
+					}
+					if (reader.getSkippedRecords() > 0) {
+						System.err.println(
+								"Skipped " + reader.getSkippedRecords() + " corrupt records of " + segmentFile);
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package de.justeazy.slack2irc.transcript;
+
+/**
+ * <p>
+ * Single record of the transcript: a relayed message with its time and
+ * direction.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class TranscriptRecord {
+
+	/**
+	 * Direction of messages relayed from IRC to Slack
+	 */
+	public static final byte IRC_TO_SLACK = 0;
+
+	/**
+	 * Direction of messages relayed from Slack to IRC
+	 */
+	public static final byte SLACK_TO_IRC = 1;
+
+	/**
+	 * Time of the message in milliseconds since the epoch
+	 */
+	private long timestamp;
+
+	/**
+	 * Direction of the message
+	 */
+	private byte direction;
+
+	/**
+	 * Username of the message (may be <code>null</code>)
+	 */
+	private String sender;
+
+	/**
+	 * Content of the message
+	 */
+	private String content;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>TranscriptRecord</code>.
+	 * </p>
+	 * 
+	 * @param timestamp
+	 *            Time of the message in milliseconds since the epoch
+	 * @param direction
+	 *            Direction of the message (<code>IRC_TO_SLACK</code> or
+	 *            <code>SLACK_TO_IRC</code>)
+	 * @param sender
+	 *            Username of the message (may be <code>null</code>)
+	 * @param content
+	 *            Content of the message
+	 */
+	public TranscriptRecord(long timestamp, byte direction, String sender, String content) {
+		this.timestamp = timestamp;
+		this.direction = direction;
+		this.sender = sender;
+		this.content = content;
+	}
+
+	/**
+	 * <p>
+	 * Returns the time of the message.
+	 * </p>
+	 * 
+	 * @return Time in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * <p>
+	 * Returns the direction of the message.
+	 * </p>
+	 * 
+	 * @return <code>IRC_TO_SLACK</code> or <code>SLACK_TO_IRC</code>
+	 */
+	public byte getDirection() {
+		return direction;
+	}
+
+	/**
+	 * <p>
+	 * Returns the username of the message.
+	 * </p>
+	 * 
+	 * @return Username (may be <code>null</code>)
+	 */
+	public String getSender() {
+		return sender;
+	}
+
+	/**
+	 * <p>
+	 * Returns the content of the message.
+	 * </p>
+	 * 
+	 * @return Content
+	 */
+	public String getContent() {
+		return content;
+	}
+
+}
@@ -0,0 +1,356 @@
+package de.justeazy.slack2irc.transcript;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.justeazy.slack2irc.Message;
+
+/**
+ * <p>
+ * Writes the transcript of all relayed messages to gzip compressed segment
+ * files. Records are queued by the relaying thread and written in batches by
+ * an own thread, so relaying a message only pays for the enqueue. If the queue
+ * is full, records are dropped instead of blocking the relay. The compressed
+ * stream is flushed on a timer, not after every batch, so a busy channel
+ * doesn't degrade the compression.
+ * </p>
+ * <p>
+ * Every record is written as its length (<code>int</code>) followed by the
+ * timestamp (<code>long</code>), the direction (<code>byte</code>), the sender
+ * and the content. The length counts the bytes following it. Strings are
+ * written by <code>StringCodec</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class TranscriptWriter implements Runnable {
+
+	/**
+	 * Logging instance
+	 */
+	private static Logger l = LogManager.getLogger(TranscriptWriter.class);
+
+	/**
+	 * Maximum number of records written in one batch
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * Prefix of the segment files
+	 */
+	private String filePrefix;
+
+	/**
+	 * Maximum number of (uncompressed) bytes of a segment
+	 */
+	private long maxSegmentSize;
+
+	/**
+	 * Maximum age of a segment in milliseconds
+	 */
+	private long maxSegmentAge;
+
+	/**
+	 * Interval between two flushes of the current segment in milliseconds
+	 */
+	private long flushInterval;
+
+	/**
+	 * Records not yet written
+	 */
+	private BlockingQueue<TranscriptRecord> queue;
+
+	/**
+	 * Number of dropped records
+	 */
+	private AtomicLong droppedRecords = new AtomicLong();
+
+	/**
+	 * Stream of the current segment
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * Number of (uncompressed) bytes written to the current segment
+	 */
+	private long segmentSize;
+
+	/**
+	 * Creation time of the current segment
+	 */
+	private long segmentStart;
+
+	/**
+	 * Time of the last flush of the current segment
+	 */
+	private long lastFlush;
+
+	/**
+	 * Whether records have been written since the last flush
+	 */
+	private boolean unflushed = false;
+
+	/**
+	 * Reused buffer of the encoded record
+	 */
+	private ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+
+	/**
+	 * Stream of the encoded record
+	 */
+	private DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+
+	/**
+	 * Whether the writer is running
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Thread of the writer
+	 */
+	private Thread thread;
+
+	/**
+	 * <p>
+	 * Creates an instance of <code>TranscriptWriter</code> with the given
+	 * properties.
+	 * </p>
+	 * 
+	 * @param properties
+	 *            Properties to configure the transcript
+	 */
+	public TranscriptWriter(Properties properties) {
+		filePrefix = properties.getProperty("transcriptFile");
+		maxSegmentSize = Long.parseLong(properties.getProperty("transcriptSegmentSize", "64")) * 1024 * 1024;
+		maxSegmentAge = TimeUnit.HOURS.toMillis(Long.parseLong(properties.getProperty("transcriptSegmentAge", "24")));
+		flushInterval = TimeUnit.SECONDS
+				.toMillis(Long.parseLong(properties.getProperty("transcriptFlushInterval", "5")));
+		queue = new ArrayBlockingQueue<TranscriptRecord>(
+				Integer.parseInt(properties.getProperty("transcriptQueueSize", "10000")));
+	}
+
+	/**
+	 * <p>
+	 * Starts the thread of the writer.
+	 * </p>
+	 */
+	public void start() {
+		thread = new Thread(this, "transcript");
+		thread.setDaemon(true);
+		thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Queues the given relayed message.
+	 * </p>
+	 * 
+	 * @param direction
+	 *            Direction of the message (<code>IRC_TO_SLACK</code> or
+	 *            <code>SLACK_TO_IRC</code> of <code>TranscriptRecord</code>)
+	 * @param message
+	 *            Relayed message
+	 */
+	public void append(byte direction, Message message) {
+		if (!queue.offer(new TranscriptRecord(System.currentTimeMillis(), direction, message.getUsername(),
+				message.getContent()))) {
+			droppedRecords.incrementAndGet();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of records not yet written.
+	 * </p>
+	 * 
+	 * @return Number of queued records
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * <p>
+	 * Returns the number of records dropped because the queue was full.
+	 * </p>
+	 * 
+	 * @return Number of dropped records
+	 */
+	public long getDroppedRecords() {
+		return droppedRecords.get();
+	}
+
+	/**
+	 * <p>
+	 * Stops the writer after writing all queued records.
+	 * </p>
+	 */
+	public void close() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes the queued records in batches until the writer is closed.
+	 * </p>
+	 */
+	public void run() {
+		List<TranscriptRecord> batch = new ArrayList<TranscriptRecord>(BATCH_SIZE);
+		while (running || !queue.isEmpty()) {
+			try {
+				TranscriptRecord record = queue.poll(1, TimeUnit.SECONDS);
+				if (record != null) {
+					batch.add(record);
+					queue.drainTo(batch, BATCH_SIZE - 1);
+				}
+			} catch (InterruptedException e) {
+				queue.drainTo(batch);
+			}
+
+			try {
+				if (out != null && isSegmentComplete()) {
+					closeSegment();
+				}
+				if (!batch.isEmpty()) {
+					if (out == null) {
+						openSegment();
+					}
+					for (TranscriptRecord record : batch) {
+						write(record);
+					}
+					unflushed = true;
+				}
+				if (unflushed && System.currentTimeMillis() - lastFlush >= flushInterval) {
+					out.flush();
+					lastFlush = System.currentTimeMillis();
+					unflushed = false;
+				}
+			} catch (IOException e) {
+				l.error("Error writing transcript", e);
+				closeQuietly();
+			}
+			batch.clear();
+		}
+
+		try {
+			if (out != null) {
+				closeSegment();
+			}
+		} catch (IOException e) {
+			l.error("Error closing transcript", e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Writes the given record to the current segment.
+	 * </p>
+	 * 
+	 * @param record
+	 *            Record to write
+	 * @throws IOException
+	 *             If the segment can't be written
+	 */
+	private void write(TranscriptRecord record) throws IOException {
+		recordBuffer.reset();
+		recordOut.writeLong(record.getTimestamp());
+		recordOut.writeByte(record.getDirection());
+		StringCodec.writeString(recordOut, record.getSender());
+		StringCodec.writeString(recordOut, record.getContent());
+
+		out.writeInt(recordBuffer.size());
+		recordBuffer.writeTo(out);
+		segmentSize += 4 + recordBuffer.size();
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the current segment reached its maximum size or age.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if a new segment has to be started
+	 */
+	private boolean isSegmentComplete() {
+		return segmentSize >= maxSegmentSize || System.currentTimeMillis() - segmentStart >= maxSegmentAge;
+	}
+
+	/**
+	 * <p>
+	 * Opens a new segment file named after the prefix and its creation time.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the segment can't be created
+	 */
+	private void openSegment() throws IOException {
+		segmentStart = System.currentTimeMillis();
+		File file = new File(filePrefix + "." + segmentStart + ".gz");
+		for (int i = 1; file.exists(); i++) {
+			file = new File(filePrefix + "." + segmentStart + "-" + i + ".gz");
+		}
+		l.debug("Starting transcript segment " + file);
+		out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 8192, true), 65536));
+		segmentSize = 0;
+		lastFlush = segmentStart;
+		unflushed = false;
+	}
+
+	/**
+	 * <p>
+	 * Closes the current segment.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the segment can't be closed
+	 */
+	private void closeSegment() throws IOException {
+		DataOutputStream segment = out;
+		out = null;
+		segment.close();
+	}
+
+	/**
+	 * <p>
+	 * Closes the current segment after an error.
+	 * </p>
+	 */
+	private void closeQuietly() {
+		if (out != null) {
+			try {
+				closeSegment();
+			} catch (IOException e) {
+				l.error("Error closing transcript", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,426 @@
+package de.justeazy.slack2irc;
+
+import java.beans.PropertyChangeEvent;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackPersona;
+import com.ullink.slack.simpleslackapi.SlackSession;
+import com.ullink.slack.simpleslackapi.SlackUser;
+import com.ullink.slack.simpleslackapi.events.SlackMessagePosted;
+import com.ullink.slack.simpleslackapi.listeners.SlackMessagePostedListener;
+
+import de.justeazy.slack2irc.irc.EmojiReplacer;
+import de.justeazy.slack2irc.irc.IrcBot;
+import de.justeazy.slack2irc.slack.SlackBot;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Pushes synthetic traffic through the relay paths of a
+ * <code>Slack2IrcBridge</code> with the real <code>IrcBot</code> and
+ * <code>SlackBot</code> and fails if the bytes allocated per relayed message by
+ * the relaying thread exceed the budget of a path. Only the network is
+ * replaced: the IRC bot queues its lines in PircBot's outgoing queue as usual
+ * (the queue is written by PircBot's own thread once connected) and the Slack
+ * bot uses a stub session.
+ * </p>
+ * <p>
+ * The budgets are multiples of a reference path measured in the same run,
+ * which allocates what any relay needs at least: a <code>Message</code>, a
+ * <code>PropertyChangeEvent</code> and the formatted line. So object headers,
+ * compressed references and the layout of strings of the JVM under test scale
+ * the budgets and the reference alike. The multiples leave roughly a third of
+ * headroom over the measured allocations. Set the system property
+ * <code>allocationBudgetFactor</code> to scale them further.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class AllocationBudgetTest extends TestCase {
+
+	/**
+	 * Number of messages relayed before measuring (to let the JIT compile the
+	 * paths)
+	 */
+	private static final int WARMUP_MESSAGES = 20000;
+
+	/**
+	 * Number of measured messages
+	 */
+	private static final int MEASURED_MESSAGES = 100000;
+
+	/**
+	 * Number of measurements of the reference path
+	 */
+	private static final int REFERENCE_RUNS = 3;
+
+	/**
+	 * Budget of relaying a message from IRC to Slack in multiples of the
+	 * reference: <code>Message</code> and <code>PropertyChangeEvent</code> of
+	 * the IRC bot, the formatted line of the Slack bot and the argument array
+	 * of the stub session
+	 */
+	private static final double IRC_TO_SLACK_BUDGET = 4.75;
+
+	/**
+	 * Budget of relaying a message from Slack to IRC in multiples of the
+	 * reference: the <code>Matcher</code> of the Join/Part pattern,
+	 * <code>Message</code> and <code>PropertyChangeEvent</code> of the Slack
+	 * bot, the entry of the edit cache, the formatted line with replaced
+	 * emojis and the <code>PRIVMSG</code> line of PircBot
+	 */
+	private static final double SLACK_TO_IRC_BUDGET = 12.5;
+
+	/**
+	 * Budget of relaying a Join, Part or Quit from IRC to Slack in multiples of
+	 * the reference: the notification text, its <code>Message</code> and
+	 * <code>PropertyChangeEvent</code> and the formatted line of the Slack bot
+	 */
+	private static final double JOIN_PART_QUIT_BUDGET = 6;
+
+	/**
+	 * Budget of relaying a message from IRC to Slack with transcript in
+	 * multiples of the reference: <code>IRC_TO_SLACK_BUDGET</code> plus the
+	 * queued <code>TranscriptRecord</code> and its queue node
+	 */
+	private static final double TRANSCRIPT_BUDGET = IRC_TO_SLACK_BUDGET + 0.5;
+
+	/**
+	 * Budget of replacing the emojis of a message in multiples of the
+	 * reference: the looked up emoji names and the replaced message
+	 */
+	private static final double EMOJI_BUDGET = 1.5;
+
+	/**
+	 * Usernames of the synthetic messages
+	 */
+	private static final String[] USERNAMES = { "alice", "bob", "carol", "dave", "eve" };
+
+	/**
+	 * Contents of the synthetic messages
+	 */
+	private static final String[] CONTENTS = { "hi", "has anybody seen the build failing today?",
+			"yes :smile: it's fixed", "see https://example.com/some/long/path?with=query&and=more :wink:",
+			"ok :facepalm: :sunglasses: thanks" };
+
+	/**
+	 * <p>
+	 * Interface of a measured path.
+	 * </p>
+	 */
+	private interface Path {
+
+		/**
+		 * <p>
+		 * Runs the path once for the given synthetic message.
+		 * </p>
+		 * 
+		 * @param i
+		 *            Number of the message
+		 */
+		public void run(int i);
+
+	}
+
+	/**
+	 * Bean to get the allocated bytes of the current thread
+	 */
+	private com.sun.management.ThreadMXBean threadBean;
+
+	/**
+	 * Factor applied to all budgets
+	 */
+	private double budgetFactor;
+
+	/**
+	 * Bytes allocated per message by the reference path (measured once per
+	 * JVM)
+	 */
+	private static double referenceBytes;
+
+	/**
+	 * Objects of the reference path (kept, so the JIT can't eliminate their
+	 * allocation)
+	 */
+	private static Object[] referenceSink = new Object[2];
+
+	/**
+	 * Number of messages sent by the stub Slack sessions
+	 */
+	private int sentToSlack;
+
+	/**
+	 * Listener of posted messages registered by the Slack bot at its stub
+	 * session
+	 */
+	private SlackMessagePostedListener postedListener;
+
+	@Override
+	protected void setUp() {
+		threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		budgetFactor = Double.parseDouble(System.getProperty("allocationBudgetFactor", "1"));
+		if (referenceBytes == 0) {
+			Path reference = new Path() {
+				public void run(int i) {
+					Message message = new Message(USERNAMES[i % USERNAMES.length], CONTENTS[i % CONTENTS.length]);
+					referenceSink[0] = new PropertyChangeEvent(this, "postedMessage", null, message);
+					referenceSink[1] = new StringBuilder(message.getContent().length() + 32).append('<')
+							.append(message.getUsername()).append("> ").append(message.getContent()).toString();
+				}
+			};
+			// the JIT optimizes the reference only after a longer warm-up,
+			// so the last of several measurements is used
+			for (int i = 0; i < REFERENCE_RUNS; i++) {
+				referenceBytes = bytesPerMessage(reference);
+			}
+			System.out.println(String.format("%-26s %8.1f bytes/message", "Reference", referenceBytes));
+		}
+	}
+
+	/**
+	 * <p>
+	 * Measures the relay paths between IRC and Slack.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the bots or the bridge can't be created
+	 */
+	public void testRelayPaths() throws IOException {
+		final IrcBot ircBot = createIrcBot();
+		SlackBot slackBot = createSlackBot();
+		new Slack2IrcBridge(new Properties(), ircBot, slackBot);
+
+		measure("IRC to Slack", IRC_TO_SLACK_BUDGET, new Path() {
+			public void run(int i) {
+				ircBot.onMessage("#test", USERNAMES[i % USERNAMES.length], "login", "example.com",
+						CONTENTS[i % CONTENTS.length]);
+			}
+		});
+		assertEquals(WARMUP_MESSAGES + MEASURED_MESSAGES, sentToSlack);
+
+		final SlackMessagePosted[] events = new SlackMessagePosted[CONTENTS.length];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = createPostedEvent(USERNAMES[i % USERNAMES.length], CONTENTS[i], "1500000000.00000" + i);
+		}
+		final SlackSession session = stub(SlackSession.class, Collections.<String, Object> emptyMap());
+		measure("Slack to IRC", SLACK_TO_IRC_BUDGET, new Path() {
+			public void run(int i) {
+				postedListener.onEvent(events[i % events.length], session);
+			}
+		});
+		assertEquals(WARMUP_MESSAGES + MEASURED_MESSAGES, ircBot.getOutgoingQueueSize());
+
+		measure("Join/Part/Quit", JOIN_PART_QUIT_BUDGET, new Path() {
+			public void run(int i) {
+				ircBot.onJoin("#test", USERNAMES[i % USERNAMES.length], "login", "example.com");
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Measures the relay path from IRC to Slack with transcript.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the bots or the bridge can't be created
+	 */
+	public void testTranscriptPath() throws IOException {
+		File transcriptDir = new File(System.getProperty("java.io.tmpdir"), "slack2irc-allocation-budget");
+		transcriptDir.mkdirs();
+		Properties properties = new Properties();
+		properties.setProperty("transcriptFile", new File(transcriptDir, "transcript").getPath());
+		final IrcBot ircBot = createIrcBot();
+		Slack2IrcBridge bridge = new Slack2IrcBridge(properties, ircBot, createSlackBot());
+		bridge.getTranscriptWriter().start();
+		try {
+			measure("IRC to Slack (transcript)", TRANSCRIPT_BUDGET, new Path() {
+				public void run(int i) {
+					ircBot.onMessage("#test", USERNAMES[i % USERNAMES.length], "login", "example.com",
+							CONTENTS[i % CONTENTS.length]);
+				}
+			});
+		} finally {
+			bridge.getTranscriptWriter().close();
+			for (File segment : transcriptDir.listFiles()) {
+				segment.delete();
+			}
+			transcriptDir.delete();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Measures the replacement of emojis with the replacements of the
+	 * classpath.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the emoji replacements can't be read
+	 */
+	public void testEmojiReplacement() throws IOException {
+		final EmojiReplacer emojis = new EmojiReplacer(getClass().getResourceAsStream("/slackemojis.config"), "[%s]");
+		measure("Emoji replacement", EMOJI_BUDGET, new Path() {
+			public void run(int i) {
+				emojis.replace(CONTENTS[i % CONTENTS.length]);
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Measures the given path and fails if the bytes allocated per message
+	 * exceed its budget.
+	 * </p>
+	 * 
+	 * @param name
+	 *            Name of the path
+	 * @param budget
+	 *            Budget in multiples of the reference per message
+	 * @param path
+	 *            Path to measure
+	 */
+	private void measure(String name, double budget, Path path) {
+		double bytesPerMessage = bytesPerMessage(path);
+		long effectiveBudget = (long) (budget * referenceBytes * budgetFactor);
+		System.out.println(String.format("%-26s %8.1f bytes/message (budget %d)", name, bytesPerMessage,
+				effectiveBudget));
+		assertTrue(name + " allocates " + bytesPerMessage + " bytes/message, budget is " + effectiveBudget,
+				bytesPerMessage <= effectiveBudget);
+	}
+
+	/**
+	 * <p>
+	 * Returns the bytes allocated per message by the given path after a
+	 * warm-up.
+	 * </p>
+	 * 
+	 * @param path
+	 *            Path to measure
+	 * @return Bytes per message
+	 */
+	private double bytesPerMessage(Path path) {
+		for (int i = 0; i < WARMUP_MESSAGES; i++) {
+			path.run(i);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_MESSAGES; i++) {
+			path.run(i);
+		}
+		long after = threadBean.getThreadAllocatedBytes(threadId);
+		return (after - before) / (double) MEASURED_MESSAGES;
+	}
+
+	/**
+	 * <p>
+	 * Creates an IRC bot which is never connected.
+	 * </p>
+	 * 
+	 * @return IRC bot
+	 * @throws IOException
+	 *             If the emoji replacements can't be read
+	 */
+	private IrcBot createIrcBot() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("ircNick", "bridge");
+		properties.setProperty("ircChannel", "#test");
+		return new IrcBot(properties,
+				new EmojiReplacer(getClass().getResourceAsStream("/slackemojis.config"), "[%s]"));
+	}
+
+	/**
+	 * <p>
+	 * Creates a Slack bot with a stub session counting the sent messages.
+	 * </p>
+	 * 
+	 * @return Slack bot
+	 */
+	private SlackBot createSlackBot() {
+		Map<String, Object> channel = new HashMap<String, Object>();
+		channel.put("getId", "C0TEST");
+		channel.put("getName", "test");
+		channel.put("getMembers", Collections.emptyList());
+		Map<String, Object> persona = new HashMap<String, Object>();
+		persona.put("getUserName", "bridge");
+		Map<String, Object> session = new HashMap<String, Object>();
+		session.put("findChannelByName", stub(SlackChannel.class, channel));
+		session.put("sessionPersona", stub(SlackPersona.class, persona));
+
+		Properties properties = new Properties();
+		properties.setProperty("slackChannel", "test");
+		properties.setProperty("slackEmojiCacheFile",
+				new File(System.getProperty("java.io.tmpdir"), "slack2irc-allocation-budget.cache").getPath());
+		return new SlackBot(properties, stub(SlackSession.class, session));
+	}
+
+	/**
+	 * <p>
+	 * Creates an event of a message posted in Slack.
+	 * </p>
+	 * 
+	 * @param username
+	 *            Username of the sender
+	 * @param content
+	 *            Content of the message
+	 * @param timestamp
+	 *            Slack timestamp of the message
+	 * @return Event
+	 */
+	private SlackMessagePosted createPostedEvent(String username, String content, String timestamp) {
+		Map<String, Object> sender = new HashMap<String, Object>();
+		sender.put("getUserName", username);
+		sender.put("getId", "U" + username.toUpperCase());
+		Map<String, Object> event = new HashMap<String, Object>();
+		event.put("getSender", stub(SlackUser.class, sender));
+		event.put("getMessageContent", content);
+		event.put("getTimeStamp", timestamp);
+		return stub(SlackMessagePosted.class, event);
+	}
+
+	/**
+	 * <p>
+	 * Creates a stub of the given interface of the Slack API. Methods return
+	 * the value given for their name (or <code>null</code>). Sent messages are
+	 * counted and the listener of posted messages is kept.
+	 * </p>
+	 * 
+	 * @param type
+	 *            Interface to stub
+	 * @param values
+	 *            Return values by method name
+	 * @return Stub
+	 */
+	private <T> T stub(Class<T> type, final Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("sendMessage") || name.equals("postGenericSlackCommand")) {
+							sentToSlack++;
+						} else if (name.equals("addMessagePostedListener")) {
+							postedListener = (SlackMessagePostedListener) args[0];
+						} else if (name.equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						} else if (name.equals("equals")) {
+							return proxy == args[0];
+						}
+						return values.get(name);
+					}
+				}));
+	}
+
+}
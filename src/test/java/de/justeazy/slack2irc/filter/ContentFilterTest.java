@@ -0,0 +1,167 @@
+package de.justeazy.slack2irc.filter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import de.justeazy.slack2irc.Message;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests of <code>ContentFilter</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class ContentFilterTest extends TestCase {
+
+	/**
+	 * Temporary rules file
+	 */
+	private File rulesFile;
+
+	@Override
+	protected void setUp() throws IOException {
+		rulesFile = File.createTempFile("slack2irc-filter", ".rules");
+	}
+
+	@Override
+	protected void tearDown() {
+		rulesFile.delete();
+	}
+
+	/**
+	 * <p>
+	 * Creates a filter with the given rules.
+	 * </p>
+	 * 
+	 * @param rules
+	 *            Lines of the rules file
+	 * @return Filter
+	 * @throws IOException
+	 *             If the rules are invalid
+	 */
+	private ContentFilter createFilter(String... rules) throws IOException {
+		FileWriter writer = new FileWriter(rulesFile);
+		try {
+			for (String rule : rules) {
+				writer.write(rule + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		Properties properties = new Properties();
+		properties.setProperty("filterRules", rulesFile.getPath());
+		return new ContentFilter(properties);
+	}
+
+	/**
+	 * <p>
+	 * A drop rule drops the message even if a redact rule before it matches
+	 * the same text.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the rules are invalid
+	 */
+	public void testDropBeforeRedact() throws IOException {
+		ContentFilter filter = createFilter("redact both regex \\w+", "drop both regex secret");
+		assertNull(filter.filterFromIrc(new Message("alice", "my secret")));
+		assertNull(filter.filterFromSlack(new Message("alice", "my secret")));
+		assertEquals(0, filter.getHits(0));
+		assertEquals(2, filter.getHits(1));
+	}
+
+	/**
+	 * <p>
+	 * Overlapping regular expressions redact the union of their matches.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the rules are invalid
+	 */
+	public void testOverlappingRedactions() throws IOException {
+		ContentFilter filter = createFilter("redact irc regex pass\\w*", "redact irc regex \\d+",
+				"redact irc literal WORD");
+		assertEquals("[redacted] is [redacted] and [redacted]",
+				filter.filterFromIrc(new Message("alice", "password is 1234 and word")).getContent());
+		assertEquals(1, filter.getHits(0));
+		assertEquals(1, filter.getHits(1));
+		// the literal also matches inside "password"
+		assertEquals(2, filter.getHits(2));
+
+		// the rules only apply to messages coming from IRC
+		Message message = new Message("alice", "password is 1234");
+		assertSame(message, filter.filterFromSlack(message));
+	}
+
+	/**
+	 * <p>
+	 * Back references and named groups refer to their own rule.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the rules are invalid
+	 */
+	public void testGroups() throws IOException {
+		ContentFilter filter = createFilter("redact both regex (a)\\1", "redact both regex (?<x>b)\\k<x>");
+		assertEquals("x[redacted]x[redacted]x", filter.filterFromIrc(new Message(null, "xaaxbbx")).getContent());
+	}
+
+	/**
+	 * <p>
+	 * Regular expressions combined into one alternation keep their own inline
+	 * flags and are evaluated together with the ones that can't be combined.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the rules are invalid
+	 */
+	public void testCombinedRegexes() throws IOException {
+		ContentFilter filter = createFilter("redact both regex (?i)token", "redact both regex key",
+				"redact both regex (c)\\1", "drop both regex ^(drop|skip)$");
+		assertEquals("[redacted] KEY [redacted] [redacted]",
+				filter.filterFromIrc(new Message("alice", "TOKEN KEY key cc")).getContent());
+		assertEquals(1, filter.getHits(0));
+		assertEquals(1, filter.getHits(1));
+		assertEquals(1, filter.getHits(2));
+		assertNull(filter.filterFromIrc(new Message("alice", "skip")));
+		assertEquals(1, filter.getHits(3));
+
+		Message message = new Message("alice", "nothing to see");
+		assertSame(message, filter.filterFromSlack(message));
+	}
+
+	/**
+	 * <p>
+	 * Sender rules match the username case-insensitively.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             If the rules are invalid
+	 */
+	public void testSender() throws IOException {
+		ContentFilter filter = createFilter("drop slack sender NoisyBot");
+		assertNull(filter.filterFromSlack(new Message("noisybot", "build passed")));
+		assertNotNull(filter.filterFromSlack(new Message("alice", "build passed")));
+		assertNotNull(filter.filterFromIrc(new Message("noisybot", "build passed")));
+	}
+
+	/**
+	 * <p>
+	 * Invalid rules are reported with their line.
+	 * </p>
+	 */
+	public void testInvalidRule() {
+		try {
+			createFilter("# comment", "redact both regex ok", "drop both regex (unclosed");
+			fail("Invalid regular expression accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(rulesFile.getPath() + ":3: "));
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package de.justeazy.slack2irc.slack;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.ullink.slack.simpleslackapi.SlackUser;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests of <code>MentionTrie</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class MentionTrieTest extends TestCase {
+
+	/**
+	 * Minimum length of a name
+	 */
+	private static final int MIN_LENGTH = 3;
+
+	/**
+	 * <p>
+	 * Names are replaced case-insensitively at word boundaries, the longest
+	 * name wins and a preceding <code>@</code> is part of the mention.
+	 * </p>
+	 */
+	public void testReplace() {
+		MentionTrie trie = new MentionTrie(Arrays.asList(user("U1", "ann"), user("U2", "anna"), user("U3", "bob")),
+				MIN_LENGTH);
+		assertEquals(3, trie.size());
+		assertEquals("<@U2> and <@U1>", trie.replace("Anna and ann"));
+		assertEquals("hi <@U3>, annabel", trie.replace("hi @bob, annabel"));
+		assertEquals("bob_x xbob", trie.replace("bob_x xbob"));
+		String text = "nobody here";
+		assertSame(text, trie.replace(text));
+	}
+
+	/**
+	 * <p>
+	 * Users with names shorter than the minimum length or without an ID are
+	 * left out.
+	 * </p>
+	 */
+	public void testMentionable() {
+		MentionTrie trie = new MentionTrie(Arrays.asList(user("U1", "al"), user(null, "carol"), user("U3", null)),
+				MIN_LENGTH);
+		assertEquals(0, trie.size());
+		assertEquals("al carol", trie.replace("al carol"));
+		assertSame(trie, trie.add(user("U4", "ed")));
+		assertSame(trie, trie.add(user(null, "dave")));
+	}
+
+	/**
+	 * <p>
+	 * URLs and code are left as they are.
+	 * </p>
+	 */
+	public void testSkipsUrlsAndCode() {
+		MentionTrie trie = new MentionTrie(Collections.singletonList(user("U1", "bob")), MIN_LENGTH);
+		assertEquals("see http://example.com/bob and <@U1>", trie.replace("see http://example.com/bob and bob"));
+		assertEquals("www.bob.com <@U1>", trie.replace("www.bob.com bob"));
+		assertEquals("`bob` <@U1>", trie.replace("`bob` bob"));
+		assertEquals("```\nbob\n``` <@U1>", trie.replace("```\nbob\n``` bob"));
+		// an unclosed backtick only skips itself
+		assertEquals("`<@U1>", trie.replace("`bob"));
+	}
+
+	/**
+	 * <p>
+	 * Adding and removing a member returns a new trie and leaves the old one
+	 * unchanged.
+	 * </p>
+	 */
+	public void testAddAndRemove() {
+		MentionTrie trie = new MentionTrie(Collections.singletonList(user("U1", "ann")), MIN_LENGTH);
+		MentionTrie added = trie.add(user("U2", "anna"));
+		assertEquals(1, trie.size());
+		assertEquals(2, added.size());
+		assertEquals("<@U1> anna", trie.replace("ann anna"));
+		assertEquals("<@U1> <@U2>", added.replace("ann anna"));
+
+		// the longer name is removed, the shorter one on its path stays
+		MentionTrie removed = added.remove("anna", "U2");
+		assertEquals(1, removed.size());
+		assertEquals("<@U1> anna", removed.replace("ann anna"));
+		assertEquals("<@U1> <@U2>", added.replace("ann anna"));
+
+		// the shorter name is removed, the longer one below it stays
+		removed = added.remove("ANN", "U1");
+		assertEquals(1, removed.size());
+		assertEquals("ann <@U2>", removed.replace("ann anna"));
+
+		removed = removed.remove("anna", "U2");
+		assertEquals(0, removed.size());
+		assertEquals("ann anna", removed.replace("ann anna"));
+	}
+
+	/**
+	 * <p>
+	 * A name is only removed for the user it belongs to, so a renamed user
+	 * doesn't remove the name another user has taken over.
+	 * </p>
+	 */
+	public void testRemoveOtherUser() {
+		MentionTrie trie = new MentionTrie(Collections.singletonList(user("U1", "ann")), MIN_LENGTH);
+		assertSame(trie, trie.remove("ann", "U2"));
+		assertSame(trie, trie.remove("anne", "U1"));
+		assertSame(trie, trie.remove("an", "U1"));
+
+		MentionTrie renamed = trie.add(user("U2", "ann"));
+		assertEquals(1, renamed.size());
+		assertEquals("<@U2>", renamed.replace("ann"));
+		assertSame(renamed, renamed.remove("ann", "U1"));
+	}
+
+	/**
+	 * <p>
+	 * Creates a Slack user.
+	 * </p>
+	 * 
+	 * @param id
+	 *            ID of the user
+	 * @param name
+	 *            Username
+	 * @return User
+	 */
+	private static SlackUser user(final String id, final String name) {
+		return (SlackUser) Proxy.newProxyInstance(SlackUser.class.getClassLoader(), new Class<?>[] { SlackUser.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getId")) {
+							return id;
+						} else if (method.getName().equals("getUserName")) {
+							return name;
+						}
+						return null;
+					}
+				});
+	}
+
+}
@@ -0,0 +1,103 @@
+package de.justeazy.slack2irc.slack;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests of <code>SlackThreads</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class SlackThreadsTest extends TestCase {
+
+	/**
+	 * <p>
+	 * Creates the threads with the given capacity.
+	 * </p>
+	 * 
+	 * @param capacity
+	 *            Maximum number of threads
+	 * @return Threads
+	 */
+	private static SlackThreads createThreads(int capacity) {
+		Properties properties = new Properties();
+		properties.setProperty("slackThreadCacheSize", Integer.toString(capacity));
+		return new SlackThreads(properties);
+	}
+
+	/**
+	 * <p>
+	 * The first reply of a thread is tagged with the first words of the
+	 * parent message, further replies with the handle only.
+	 * </p>
+	 */
+	public void testTag() {
+		SlackThreads threads = createThreads(4);
+		long key = TimestampMap.toKey("1458170917.164398");
+		assertEquals("[t:0.1 re: has anybody seen the build...]",
+				threads.tag(key, "has anybody seen the build output of today?"));
+		assertEquals("[t:0.1]", threads.tag(key, "has anybody seen the build output of today?"));
+		assertEquals("[t:1.1]", threads.tag(TimestampMap.toKey("1458170918.000001"), null));
+		assertEquals("1458170917.164398", threads.getThreadTimestamp("t:0.1"));
+		assertEquals("1458170918.000001", threads.getThreadTimestamp("t:1.1"));
+	}
+
+	/**
+	 * <p>
+	 * A handle whose slot has been reused for another thread is rejected.
+	 * </p>
+	 */
+	public void testReusedSlot() {
+		SlackThreads threads = createThreads(2);
+		assertEquals("[t:0.1]", threads.tag(TimestampMap.toKey("1458170917.000001"), null));
+		assertEquals("[t:1.1]", threads.tag(TimestampMap.toKey("1458170917.000002"), null));
+		// the third thread evicts the oldest one
+		assertEquals("[t:0.2]", threads.tag(TimestampMap.toKey("1458170917.000003"), null));
+		assertNull(threads.getThreadTimestamp("t:0.1"));
+		assertEquals("1458170917.000003", threads.getThreadTimestamp("t:0.2"));
+		assertEquals("1458170917.000002", threads.getThreadTimestamp("t:1.1"));
+	}
+
+	/**
+	 * <p>
+	 * Unknown and malformed handles are rejected.
+	 * </p>
+	 */
+	public void testInvalidHandles() {
+		SlackThreads threads = createThreads(2);
+		threads.tag(TimestampMap.toKey("1458170917.000001"), null);
+		assertNull(threads.getThreadTimestamp("t:1.1"));
+		assertNull(threads.getThreadTimestamp("t:0.2"));
+		assertNull(threads.getThreadTimestamp("t:5.1"));
+		assertNull(threads.getThreadTimestamp("t:0"));
+		assertNull(threads.getThreadTimestamp("t:.1"));
+		assertNull(threads.getThreadTimestamp("x:0.1"));
+		assertNull(threads.getThreadTimestamp("t:-1.1"));
+	}
+
+	/**
+	 * <p>
+	 * Only a bracketed handle with both numbers followed by a space is a
+	 * prefix.
+	 * </p>
+	 */
+	public void testHandlePrefixLength() {
+		assertEquals(8, SlackThreads.getHandlePrefixLength("[t:1.2] thanks"));
+		assertEquals(10, SlackThreads.getHandlePrefixLength("[t:k3.7z] "));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:]"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:] x"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:1."));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:1.]"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:1.] x"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:.2] x"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:1.2]"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:1.2]x"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength("[t:1.2 re: x] x"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength(">1k thanks"));
+		assertEquals(0, SlackThreads.getHandlePrefixLength(""));
+	}
+
+}
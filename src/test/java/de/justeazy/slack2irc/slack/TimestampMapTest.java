@@ -0,0 +1,138 @@
+package de.justeazy.slack2irc.slack;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Tests of <code>TimestampMap</code>.
+ * </p>
+ * 
+ * @author Henrik Peters
+ */
+public class TimestampMapTest extends TestCase {
+
+	/**
+	 * Maximum age long enough for the entries not to expire during a test
+	 */
+	private static final long MAX_AGE = 3600000;
+
+	/**
+	 * <p>
+	 * Slack timestamps are converted to microseconds, invalid ones to
+	 * <code>-1</code>.
+	 * </p>
+	 */
+	public void testToKey() {
+		assertEquals(1458170917164398L, TimestampMap.toKey("1458170917.164398"));
+		assertEquals(1458170917100000L, TimestampMap.toKey("1458170917.1"));
+		assertEquals(1458170917000000L, TimestampMap.toKey("1458170917"));
+		assertEquals(-1, TimestampMap.toKey(null));
+		assertEquals(-1, TimestampMap.toKey(""));
+		assertEquals(-1, TimestampMap.toKey("1458170917.16a"));
+		assertEquals(-1, TimestampMap.toKey("-1"));
+	}
+
+	/**
+	 * <p>
+	 * Invalid keys are neither stored nor found and the capacity must be
+	 * positive.
+	 * </p>
+	 */
+	public void testInvalidKeys() {
+		TimestampMap<String> map = new TimestampMap<String>(4, MAX_AGE);
+		assertEquals(-1, map.put(-1, "invalid"));
+		assertNull(map.get(-1));
+		assertEquals(-1, map.slotOf(-1));
+		assertNull(map.remove(-1));
+		assertNull(map.getBySlot(4));
+		assertEquals(-1, map.getKeyBySlot(-1));
+
+		try {
+			new TimestampMap<String>(0, MAX_AGE);
+			fail("Capacity 0 accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * The slot of an entry stays the same until it is evicted by the entry
+	 * added <code>capacity</code> entries later.
+	 * </p>
+	 */
+	public void testEvictionReusesOldestSlot() {
+		TimestampMap<String> map = new TimestampMap<String>(2, MAX_AGE);
+		int first = map.put(100, "a");
+		int second = map.put(200, "b");
+		assertEquals(first, map.put(100, "a2"));
+		assertEquals("a2", map.get(100));
+
+		assertEquals(first, map.put(300, "c"));
+		assertNull(map.get(100));
+		assertEquals("b", map.get(200));
+		assertEquals(300, map.getKeyBySlot(first));
+		assertEquals(second, map.slotOf(200));
+	}
+
+	/**
+	 * <p>
+	 * Removals, evictions and lookups agree with a plain map while the ring
+	 * wraps around many times, so the backward shift deletion keeps the probe
+	 * sequences of colliding keys intact.
+	 * </p>
+	 */
+	public void testDeleteThenLookupAfterWraparound() {
+		int capacity = 8;
+		TimestampMap<String> map = new TimestampMap<String>(capacity, MAX_AGE);
+		// slot of every key in the model and key of every slot of the ring
+		Map<Long, Integer> model = new HashMap<Long, Integer>();
+		long[] ring = new long[capacity];
+		Arrays.fill(ring, -1);
+		int next = 0;
+		Random random = new Random(42);
+
+		for (int i = 0; i < 20000; i++) {
+			// few distinct keys, so collisions, removals and re-adds are
+			// frequent
+			long key = random.nextInt(24) * 1000003L;
+			if (random.nextInt(3) == 0) {
+				String removed = map.remove(key);
+				assertEquals("remove " + key + " at " + i, model.containsKey(key), removed != null);
+				model.remove(key);
+			} else {
+				int slot = map.put(key, "v" + key);
+				if (model.containsKey(key)) {
+					assertEquals("slot of " + key + " at " + i, (int) model.get(key), slot);
+				} else {
+					assertEquals("slot of " + key + " at " + i, next, slot);
+					// the evicted key may have been removed and added to
+					// another slot since
+					Integer evicted = model.get(ring[next]);
+					if (evicted != null && evicted == next) {
+						model.remove(ring[next]);
+					}
+					ring[next] = key;
+					model.put(key, next);
+					next = (next + 1) % capacity;
+				}
+			}
+
+			for (long k = 0; k < 24; k++) {
+				long probe = k * 1000003L;
+				Integer slot = model.get(probe);
+				if (slot != null) {
+					assertEquals("lookup " + probe + " at " + i, "v" + probe, map.get(probe));
+				} else {
+					assertNull("lookup " + probe + " at " + i, map.get(probe));
+				}
+			}
+		}
+	}
+
+}